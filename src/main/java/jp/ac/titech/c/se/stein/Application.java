@@ -81,6 +81,21 @@ public class Application implements Callable<Integer>, CommandLine.IExecutionStr
         }
         public int nthreads = 1;
 
+        @Option(names = "--parallel-commits", description = "write commits of independent branches in parallel (with -j)", order = MIDDLE)
+        public boolean isWritingCommitsInParallel = false;
+
+        @Option(names = "--pipeline", description = "overlap tree rewriting with commit writing (with -j)", order = MIDDLE)
+        public boolean isPipelining = false;
+
+        @Option(names = "--parallel-metadata", description = "rewrite commit messages and idents in the parallel tree pass (with -j)", order = MIDDLE)
+        public boolean isRewritingMetadataInParallel = false;
+
+        @Option(names = "--blob-jobs", paramLabel = "<nthreads>", description = "number of threads to translate blobs, apart from tree rewriting (default: 0, on the tree threads)", order = MIDDLE)
+        public int blobThreads = 0;
+
+        @Option(names = "--virtual-threads", description = "translate blobs on virtual threads (with --blob-jobs; requires Java 21+)", order = MIDDLE)
+        public boolean isUsingVirtualThreads = false;
+
         @Option(names = {"-n", "--dry-run"}, description = "do not actually touch destination repo", order = MIDDLE)
         public boolean isDryRunning = false;
 
@@ -90,6 +105,11 @@ public class Application implements Callable<Integer>, CommandLine.IExecutionStr
         @Option(names = "--pack", negatable = true, description = "pack objects (default: ${DEFAULT-VALUE})", order = MIDDLE)
         public boolean isPackingEnabled = false;
 
+        @Option(names = "--write-packs", paramLabel = "<num>{,K,M,G}", arity = "0..1", fallbackValue = "256M",
+                description = "write new objects directly into packs of the size instead of loose objects (default size: 256M)", order = MIDDLE,
+                converter = SizeConverter.class)
+        public long packSizeLimit = 0;
+
         @Option(names = "--no-composite", negatable = true, description = "compose multiple blob translators (default: ${DEFAULT-VALUE})", order = MIDDLE)
         public boolean useComposite = true;
 
@@ -102,10 +122,22 @@ public class Application implements Callable<Integer>, CommandLine.IExecutionStr
         @Option(names = "--cache", description = "enable persistent entry caching", order = MIDDLE)
         public boolean isCachingEnabled = false;
 
+        @Option(names = "--rebuild-cache", description = "seed the entry mapping from the commits already rewritten (for 1:1 translators)", order = MIDDLE)
+        public boolean isRebuildingCache = false;
+
+        @Option(names = "--shared-cache", paramLabel = "<dir>", description = "share blob translation results with other repositories via the directory", order = MIDDLE)
+        public File sharedCacheDirectory;
+
         @Option(names = "--mapping-mem", paramLabel = "<num>{,K,M,G}", description = "max memory for entry mapping (default: 25%% of max heap)", order = MIDDLE,
                 converter = SizeConverter.class)
         public long entryMappingMemory = -1;
 
+        @Option(names = "--off-heap", description = "keep the entry mapping in off-heap memory", order = MIDDLE)
+        public boolean isUsingOffHeapMapping = false;
+
+        @Option(names = "--diff-trees", description = "rewrite only the paths changed from the first parent", order = MIDDLE)
+        public boolean isDiffingTrees = false;
+
         @Option(names = "--extra-attributes", description = "rewrite encoding and signature in commits", order = MIDDLE)
         public boolean isRewritingExtraAttributes = false;
 
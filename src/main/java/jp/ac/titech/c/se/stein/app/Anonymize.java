@@ -12,7 +12,9 @@ import jp.ac.titech.c.se.stein.util.HashUtils;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
 
+import jp.ac.titech.c.se.stein.core.CommitTable;
 import jp.ac.titech.c.se.stein.core.Context;
 import jp.ac.titech.c.se.stein.rewriter.EntryResolver;
 import jp.ac.titech.c.se.stein.rewriter.RepositoryRewriter;
@@ -69,6 +71,15 @@ public class Anonymize extends RepositoryRewriter {
         isAuthorEmailEnabled = isEnabled;
     }
 
+    /**
+     * Assigns sequential names in the order of first conversion.
+     *
+     * <p>The numbering thus depends on the order of the calls. Authors and committers are
+     * numbered in the commit order up front (see {@link Anonymize#rewriteCommits}), so that they
+     * are the same with {@code --parallel-commits} and {@code --parallel-metadata}; tree,
+     * link, and file names converted on worker threads ({@code -j}) are numbered in the
+     * order the workers reach them.</p>
+     */
     public static class NameMap {
         private final Map<String, String> cache = new ConcurrentHashMap<>();
 
@@ -108,6 +119,25 @@ public class Anonymize extends RepositoryRewriter {
 
     private final NameMap personNameMap = new NameMap("person", "p");
 
+    /**
+     * Numbers the authors and committers in the order of the sequential pass before
+     * rewriting, since the parallel modes rewrite them in the order of scheduling.
+     * The sequential pass numbers them in that order by itself.
+     */
+    @Override
+    protected void rewriteCommits(final CommitTable commits, final Context c) {
+        final boolean isParallel = config.nthreads >= 2 && (config.isWritingCommitsInParallel || config.isRewritingMetadataInParallel);
+        if (isAuthorNameEnabled && isParallel) {
+            for (final RevCommit commit : commits) {
+                source.parseBody(commit);
+                personNameMap.convert(commit.getAuthorIdent().getName());
+                personNameMap.convert(commit.getCommitterIdent().getName());
+                commit.disposeBody();
+            }
+        }
+        super.rewriteCommits(commits, c);
+    }
+
     @Override
     public String rewriteMessage(final String message, final Context c) {
         return isMessageEnabled ? HashUtils.digest(message, 7) : message;
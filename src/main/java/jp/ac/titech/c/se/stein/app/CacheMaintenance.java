@@ -0,0 +1,107 @@
+package jp.ac.titech.c.se.stein.app;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import jp.ac.titech.c.se.stein.core.Context;
+import jp.ac.titech.c.se.stein.core.Try;
+import jp.ac.titech.c.se.stein.core.cache.PersistentEntryCache;
+import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import jp.ac.titech.c.se.stein.rewriter.RepositoryRewriter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.lib.Repository;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Maintains the persistent entry cache ({@code cache.mv.db}) of the target repository instead
+ * of rewriting it.
+ *
+ * <p>The operations run in the order of importing a snapshot, pruning, reporting statistics,
+ * exporting a snapshot, and compacting the file. Without any option, statistics are reported.</p>
+ */
+@Slf4j
+@ToString
+@Command(name = "@cache", description = "Maintain the persistent entry cache")
+public class CacheMaintenance extends RepositoryRewriter {
+    @Option(names = "--stats", description = "report entry counts by namespace and type")
+    protected boolean isReporting = false;
+
+    @Option(names = "--prune", description = "remove entries referring to objects missing in the target")
+    protected boolean isPruning = false;
+
+    @Option(names = "--compact", description = "compact the cache file")
+    protected boolean isCompacting = false;
+
+    @Option(names = "--export", paramLabel = "<file>", description = "export a portable snapshot of the cache")
+    protected File exportFile;
+
+    @Option(names = "--import", paramLabel = "<file>", description = "import a snapshot into the cache")
+    protected File importFile;
+
+    private Repository targetRepo;
+
+    @Override
+    public void initialize(final Repository sourceRepo, final Repository targetRepo) {
+        this.targetRepo = targetRepo;
+    }
+
+    @Override
+    public void rewrite(final Context c) {
+        if (importFile == null && !Files.exists(PersistentEntryCache.getFile(targetRepo))) {
+            log.info("No persistent cache in {}", targetRepo.getDirectory());
+            return;
+        }
+        final boolean isDefault = !isPruning && !isCompacting && exportFile == null && importFile == null;
+        try (final PersistentEntryCache cache = new PersistentEntryCache(targetRepo)) {
+            if (importFile != null) {
+                final long n = Try.io(() -> cache.importSnapshot(importFile.toPath(), targetRepo));
+                log.info("Imported {} entries from {}", n, importFile);
+            }
+            if (isPruning) {
+                log.info("Pruned {} entries", cache.prune(targetRepo));
+            }
+            if (isReporting || isDefault) {
+                report(cache);
+            }
+            if (exportFile != null) {
+                final long n = Try.io(() -> cache.exportSnapshot(exportFile.toPath()));
+                log.info("Exported {} entries to {}", n, exportFile);
+            }
+        }
+        if (isCompacting) {
+            final File file = PersistentEntryCache.getFile(targetRepo).toFile();
+            final long before = file.length();
+            PersistentEntryCache.compact(targetRepo);
+            log.info("Compacted {}: {} -> {} bytes", file, before, file.length());
+        }
+    }
+
+    /**
+     * Reports the numbers of entries of each namespace, by the type of the source entry and by
+     * the number of the resulting entries.
+     */
+    protected void report(final PersistentEntryCache cache) {
+        log.info("Cache file: {} ({} bytes)", PersistentEntryCache.getFile(targetRepo), PersistentEntryCache.getFile(targetRepo).toFile().length());
+        for (final Map.Entry<String, String> ns : cache.getNamespaces().entrySet()) {
+            final long[] types = new long[Entry.Type.values().length];
+            long removed = 0, single = 0, multiple = 0;
+            for (final Map.Entry<Entry, AnyColdEntry> e : cache.openEntries(ns.getKey()).entrySet()) {
+                types[e.getKey().getType().ordinal()]++;
+                switch (e.getValue().size()) {
+                    case 0 -> removed++;
+                    case 1 -> single++;
+                    default -> multiple++;
+                }
+            }
+            log.info("Namespace {}: {}", ns.getKey(), ns.getValue());
+            for (final Entry.Type type : Entry.Type.values()) {
+                log.info("  {}: {}", type, types[type.ordinal()]);
+            }
+            log.info("  results: {} removed, {} single, {} multiple", removed, single, multiple);
+        }
+    }
+}
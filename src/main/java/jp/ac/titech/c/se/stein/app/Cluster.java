@@ -9,15 +9,16 @@ import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import jp.ac.titech.c.se.stein.jgit.RevWalk;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
 import jp.ac.titech.c.se.stein.core.CommitGraph;
+import jp.ac.titech.c.se.stein.core.CommitTable;
 import jp.ac.titech.c.se.stein.core.CommitGraph.Vertex;
 import jp.ac.titech.c.se.stein.core.Context;
 import jp.ac.titech.c.se.stein.core.Context.Key;
@@ -63,8 +64,8 @@ public class Cluster extends RepositoryRewriter {
     }
 
     @Override
-    protected void rewriteCommits(final RevWalk walk, final Context c) {
-        graph.build(prepareRevisionWalk(c));
+    protected void rewriteCommits(final CommitTable commits, final Context c) {
+        graph.build(commits);
         log.debug("Graph: {} vertices, {} edges {}", graph.vertexSet().size(), graph.edgeSet().size(), c);
 
         rewriteGraph();
@@ -72,12 +73,18 @@ public class Cluster extends RepositoryRewriter {
         if (graphFile != null) {
             graph.dump(graphFile);
         }
+        // rewrite the root trees of the remaining vertices only, in the order of the graph
+        final List<RevCommit> order = new ArrayList<>();
+        for (final Vertex v : graph) {
+            order.add(commits.lookup(v.id));
+        }
+        prepareRootTrees(CommitTable.of(order), c);
+
         target.openInserter(ins -> {
             final Context uc = c.with(Key.inserter, ins);
-            try (walk) {
-                for (final Vertex v : graph) {
-                    rewriteCommit(Try.io(() -> walk.parseCommit(v.id)), uc);
-                }
+            for (final RevCommit commit : order) {
+                rewriteCommit(commit, uc);
+                commit.disposeBody();
             }
         });
 
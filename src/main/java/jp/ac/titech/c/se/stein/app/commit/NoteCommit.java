@@ -10,8 +10,6 @@ import org.eclipse.jgit.lib.ObjectId;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
-import java.nio.charset.StandardCharsets;
-
 /**
  * Prepends the original commit ID to each commit message.
  * If the source has notes (chained transformation), the original ID is read from the note.
@@ -33,11 +31,7 @@ public class NoteCommit implements CommitTranslator {
     private ObjectId resolveOriginalId(final Context c) {
         final ObjectId current = c.getRev().getId();
         final RepositoryAccess source = c.getRewriter().getSource();
-        final byte[] note = source.readNote(source.getNotes(RepositoryRewriter.R_NOTES_ORIG), current);
-        if (note != null && note.length == 40) {
-            return ObjectId.fromString(new String(note, StandardCharsets.UTF_8));
-        } else {
-            return current;
-            }
+        final ObjectId originalId = source.getNoteIndex(RepositoryRewriter.R_NOTES_ORIG).get(current);
+        return originalId != null ? originalId : current;
     }
 }
@@ -50,18 +50,33 @@ public class CommitGraph extends SimpleDirectedGraph<Vertex, Edge> implements It
             w.setRetainBody(false);
 
             for (final RevCommit commit : w) {
-                final Vertex v = Vertex.of(commit);
-                addVertex(v);
-                for (final RevCommit parent : commit.getParents()) {
-                    final Vertex p = Vertex.of(parent);
-                    addVertex(p);
-                    addEdge(v, p);
-                }
+                addCommit(commit);
             }
         }
         return this;
     }
 
+    /**
+     * Builds vertices and edges from a commit table.
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public CommitGraph build(final CommitTable commits) {
+        for (final RevCommit commit : commits) {
+            addCommit(commit);
+        }
+        return this;
+    }
+
+    private void addCommit(final RevCommit commit) {
+        final Vertex v = Vertex.of(commit);
+        addVertex(v);
+        for (final RevCommit parent : commit.getParents()) {
+            final Vertex p = Vertex.of(parent);
+            addVertex(p);
+            addEdge(v, p);
+        }
+    }
+
     /**
      * Walk ObjectIds based on reversed topological order.
      */
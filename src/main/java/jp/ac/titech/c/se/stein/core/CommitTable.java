@@ -0,0 +1,177 @@
+package jp.ac.titech.c.se.stein.core;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import jp.ac.titech.c.se.stein.jgit.RevWalk;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * The commits to be rewritten, materialized by a single revision walk.
+ *
+ * <p>Commits are indexed in the walk order (topological-reverse), and the parents of each commit
+ * are kept as indices into this table ({@code -1} for parents outside the walk), so that every
+ * pass can iterate or partition the history without walking it again. Commit bodies are not
+ * retained; the rewriter loads the body of a commit only while the commit is being rewritten, so
+ * use {@link RepositoryAccess#parseBody(RevCommit)} where messages or idents are needed elsewhere.</p>
+ *
+ * <p>The table keeps the header-parsed {@link RevCommit}s of the walk rather than raw ID arrays,
+ * since the rewriting passes and the translators take {@link RevCommit}s, which would otherwise be
+ * parsed again in every pass. Without bodies, a commit costs about its header fields and
+ * parent references, and the index by ID is an {@link ObjectIdOwnerMap} keyed by those
+ * commits. The walk itself is used only by {@link #lookup(ObjectId)} for commits outside the
+ * table (e.g., previously rewritten parents), under its lock since a walk is not thread-safe.</p>
+ */
+public class CommitTable implements Iterable<RevCommit>, AutoCloseable {
+    private final RevWalk walk;
+
+    private final RevCommit[] commits;
+
+    private final int[][] parents;
+
+    private final ObjectIdOwnerMap<Slot> indices = new ObjectIdOwnerMap<>();
+
+    private CommitTable(final RevWalk walk, final List<RevCommit> commits) {
+        this.walk = walk;
+        this.commits = commits.toArray(new RevCommit[0]);
+        this.parents = new int[this.commits.length][];
+        for (int i = 0; i < this.commits.length; i++) {
+            indices.add(new Slot(this.commits[i], i));
+        }
+        for (int i = 0; i < this.commits.length; i++) {
+            final RevCommit commit = this.commits[i];
+            final int[] ps = new int[commit.getParentCount()];
+            for (int j = 0; j < ps.length; j++) {
+                ps[j] = indexOf(commit.getParent(j));
+            }
+            parents[i] = ps;
+        }
+    }
+
+    /**
+     * Builds a table from the given revision walk. The walk is owned by the table afterward.
+     */
+    public static CommitTable of(final RevWalk walk) {
+        // This process does not require body info
+        walk.setRetainBody(false);
+        final List<RevCommit> commits = new ArrayList<>();
+        walk.forEach(commits::add);
+        return new CommitTable(walk, commits);
+    }
+
+    /**
+     * Builds a table over the given commits in the given order, e.g., a reordered subset of
+     * another table. Parents should precede their children.
+     */
+    public static CommitTable of(final List<RevCommit> commits) {
+        return new CommitTable(null, commits);
+    }
+
+    /**
+     * Returns the number of commits.
+     */
+    public int size() {
+        return commits.length;
+    }
+
+    /**
+     * Returns the commit at the given index.
+     */
+    public RevCommit get(final int index) {
+        return commits[index];
+    }
+
+    /**
+     * Returns the index of the given commit, or {@code -1} if it is not in this table.
+     */
+    public int indexOf(final AnyObjectId id) {
+        final Slot slot = indices.get(id);
+        return slot != null ? slot.index : -1;
+    }
+
+    /**
+     * Returns the parent indices of the commit at the given index. Parents outside this table are {@code -1}.
+     */
+    public int[] getParents(final int index) {
+        return parents[index];
+    }
+
+    /**
+     * Returns the index of the first parent of the commit at the given index,
+     * or {@code -1} if it has no parents or its first parent is outside this table.
+     */
+    public int getFirstParent(final int index) {
+        final int[] ps = parents[index];
+        return ps.length > 0 ? ps[0] : -1;
+    }
+
+    /**
+     * Returns the tree ID of the commit at the given index.
+     */
+    public ObjectId getTreeId(final int index) {
+        return commits[index].getTree().getId();
+    }
+
+    /**
+     * Returns the commit of the given ID, parsing its header if it is not in this table.
+     * Tables not built from a walk return {@code null} for such commits.
+     */
+    public RevCommit lookup(final ObjectId id) {
+        final int index = indexOf(id);
+        if (index >= 0) {
+            return commits[index];
+        }
+        if (walk == null) {
+            return null;
+        }
+        synchronized (walk) {
+            return Try.io(() -> walk.parseCommit(id));
+        }
+    }
+
+    /**
+     * Returns an unmodifiable list view of the commits.
+     */
+    public List<RevCommit> asList() {
+        return new AbstractList<>() {
+            @Override
+            public RevCommit get(final int index) {
+                return commits[index];
+            }
+
+            @Override
+            public int size() {
+                return commits.length;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<RevCommit> iterator() {
+        return asList().iterator();
+    }
+
+    @Override
+    public void close() {
+        if (walk != null) {
+            walk.close();
+        }
+    }
+
+    /**
+     * An index slot keyed by commit ID.
+     */
+    private static class Slot extends ObjectIdOwnerMap.Entry {
+        final int index;
+
+        Slot(final AnyObjectId id, final int index) {
+            super(id);
+            this.index = index;
+        }
+    }
+}
@@ -1,16 +1,20 @@
 package jp.ac.titech.c.se.stein.core;
 
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import jp.ac.titech.c.se.stein.entry.Entry;
+import jp.ac.titech.c.se.stein.jgit.RawObjectCopier;
 import jp.ac.titech.c.se.stein.jgit.RevWalk;
+import jp.ac.titech.c.se.stein.jgit.RollingPackInserter;
 import jp.ac.titech.c.se.stein.jgit.TreeFormatter;
-import lombok.Getter;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.notes.Note;
 import org.eclipse.jgit.notes.NoteMap;
@@ -19,10 +23,12 @@ import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import jp.ac.titech.c.se.stein.core.Try.IOThrowableFunction;
+import jp.ac.titech.c.se.stein.core.cache.ObjectIdMap;
 
 /**
  * Low-level operations on a Git repository: reading and writing blobs, trees, commits, tags,
@@ -35,10 +41,32 @@ public class RepositoryAccess implements AutoCloseable {
 
     public final Repository repo;
 
-    private final Map<String, NoteMap> notesCache = new HashMap<>();
+    private final Map<String, NoteMap> notesCache = new ConcurrentHashMap<>();
+
+    private final Map<String, ObjectIdMap> noteIndexCache = new ConcurrentHashMap<>();
+
+    /**
+     * The walks used by {@link #parseBody}, one per thread since a walk is not thread-safe.
+     */
+    private final Map<Long, RevWalk> bodyWalks = new ConcurrentHashMap<>();
 
     protected boolean isDryRunning = false;
 
+    /**
+     * The size at which a pack written by the bulk inserters is completed; 0 writes loose objects.
+     */
+    protected long packSizeLimit = 0;
+
+    /**
+     * The copier of unchanged source objects in their stored representation, or {@code null}.
+     */
+    protected RawObjectCopier rawCopier;
+
+    /**
+     * The repository whose objects {@link #rawCopier} copies.
+     */
+    protected RepositoryAccess rawCopySource;
+
     /**
      * Enables or disables dry-run mode.
      * When enabled, write operations compute object IDs without persisting to the repository.
@@ -48,12 +76,53 @@ public class RepositoryAccess implements AutoCloseable {
         log.debug("Set the dry running mode of {} to {}", repo.getDirectory(), isDryRunning);
     }
 
+    /**
+     * Makes the bulk inserters ({@link #openInserter} and {@link #getInserter}) write new
+     * objects directly into packs of about the given size, if this is a file repository.
+     *
+     * @param limit the size of a pack; 0 to write loose objects
+     */
+    public void setPackSizeLimit(final long limit) {
+        this.packSizeLimit = limit;
+        log.debug("Set the pack size limit of {} to {}", repo.getDirectory(), limit);
+    }
+
+    /**
+     * Makes copies of unchanged objects from {@code source} deferred: they are collected and
+     * written at {@link #flushRawCopies()} in their stored representation, if both of the
+     * repositories are file repositories. Nothing is deferred if this repository has alternates,
+     * which already share the objects of the source.
+     */
+    public void setRawCopySource(final RepositoryAccess source) {
+        if (!(source.repo instanceof FileRepository) || !(repo instanceof FileRepository) || source.repo == repo) {
+            return;
+        }
+        if (Files.exists(repo.getDirectory().toPath().resolve("objects/info/alternates"))) {
+            log.debug("Skip copying objects in their stored representation: {} has alternates", repo.getDirectory());
+            return;
+        }
+        rawCopier = new RawObjectCopier((FileRepository) source.repo, (FileRepository) repo);
+        rawCopySource = source;
+        log.debug("Copy unchanged objects of {} to {} in their stored representation", source.repo.getDirectory(), repo.getDirectory());
+    }
+
+    /**
+     * Writes the objects whose copies were deferred.
+     */
+    public void flushRawCopies() {
+        if (rawCopier != null && !isDryRunning) {
+            Try.io(rawCopier::flush);
+        }
+    }
+
     public RepositoryAccess(final Repository repo) {
         this.repo = repo;
     }
 
     @Override
     public void close() {
+        bodyWalks.values().forEach(RevWalk::close);
+        bodyWalks.clear();
         repo.close();
     }
 
@@ -119,6 +188,21 @@ public class RepositoryAccess implements AutoCloseable {
         }
     }
 
+    /**
+     * Loads the body of the given commit if it was parsed without retaining its body, e.g., one
+     * of a {@link CommitTable}.
+     *
+     * <p>The body is read with a walk owned by the calling thread, which is reused across calls
+     * and released on {@link #close()}.</p>
+     */
+    public RevCommit parseBody(final RevCommit commit) {
+        if (commit.getRawBuffer() == null) {
+            final RevWalk walk = bodyWalks.computeIfAbsent(Thread.currentThread().getId(), k -> new RevWalk(repo));
+            Try.io(() -> walk.parseBody(commit));
+        }
+        return commit;
+    }
+
     /**
      * Recursively flattens a tree, returning all blob entries.
      */
@@ -293,6 +377,10 @@ public class RepositoryAccess implements AutoCloseable {
      * Copies a tree to another repo.
      */
     public ObjectId copyTree(final ObjectId treeId, final RepositoryAccess target, final Context c) {
+        if (target.isCopyingRawFrom(this)) {
+            deferTreeCopy(treeId, target);
+            return treeId;
+        }
         final List<Entry> entries = new ArrayList<>();
         for (final Entry e : readTree(treeId, null)) {
             entries.add(switch (e.getType()) {
@@ -308,9 +396,40 @@ public class RepositoryAccess implements AutoCloseable {
      * Copies a blob to another repo.
      */
     public ObjectId copyBlob(final ObjectId blobId, final RepositoryAccess target, final Context c) {
+        if (target.isCopyingRawFrom(this)) {
+            target.deferRawCopy(blobId, Constants.OBJ_BLOB);
+            return blobId;
+        }
         return target.writeBlob(readBlob(blobId), c);
     }
 
+    /**
+     * Defers copying a tree and all the objects under it.
+     */
+    private void deferTreeCopy(final ObjectId treeId, final RepositoryAccess target) {
+        target.deferRawCopy(treeId, Constants.OBJ_TREE);
+        for (final Entry e : readTree(treeId, null)) {
+            switch (e.getType()) {
+                case tree -> deferTreeCopy(e.getId(), target);
+                case blob -> target.deferRawCopy(e.getId(), Constants.OBJ_BLOB);
+                default -> {
+                    // a gitlink refers to an object of another repository
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests whether the objects of the given repository are copied in their stored representation.
+     */
+    public boolean isCopyingRawFrom(final RepositoryAccess source) {
+        return rawCopier != null && rawCopySource == source && !isDryRunning;
+    }
+
+    private void deferRawCopy(final ObjectId id, final int type) {
+        Try.io(() -> rawCopier.add(id, type));
+    }
+
     /**
      * Computes the size of a blob object.
      */
@@ -361,7 +480,11 @@ public class RepositoryAccess implements AutoCloseable {
      * Reads a note for the given commit from the note map, or returns {@code null} if absent.
      */
     public byte[] readNote(final NoteMap notes, final ObjectId commitId) {
-        final ObjectId blobId = Try.io(() -> notes.get(commitId));
+        // a note map loads its buckets lazily, so lookups on a shared map are serialized
+        final ObjectId blobId;
+        synchronized (notes) {
+            blobId = Try.io(() -> notes.get(commitId));
+        }
         if (blobId == null) {
             return null;
         }
@@ -377,17 +500,45 @@ public class RepositoryAccess implements AutoCloseable {
 
     /**
      * Writes notes to the specified ref.
+     *
+     * <p>The notes commit is chained onto the current notes commit of the ref, as
+     * {@code git notes add} does. When the notes were read from that commit, only the
+     * fan-out subtrees that were loaded and changed are rewritten; the others keep their
+     * tree IDs. Nothing is written if the notes tree is unchanged.</p>
      */
     public void writeNotes(final NoteMap notes, final String ref, final Context writingContext) {
         final ObjectId treeId = isDryRunning ? ObjectId.zeroId() : insert(notes::writeTree, writingContext);
+        final RevCommit prev = getNotesCommit(ref);
+        if (prev != null && prev.getTree().equals(treeId)) {
+            log.debug("Notes of {} are unchanged", ref);
+            return;
+        }
+        final ObjectId[] parents = prev != null ? new ObjectId[]{prev.getId()} : NO_PARENTS;
         // TODO building PersonIdent better.
         final PersonIdent ident = new PersonIdent(repo);
         final String message = "Notes added by 'git notes add'";
-        final ObjectId commit = writeCommit(NO_PARENTS, treeId, ident, ident, message, writingContext);
+        final ObjectId commit = writeCommit(parents, treeId, ident, ident, message, writingContext);
 
         applyRefUpdate(new RefEntry(ref, commit));
     }
 
+    /**
+     * Returns the current notes commit of the specified ref, or {@code null} if absent.
+     */
+    private RevCommit getNotesCommit(final String ref) {
+        final Ref r = getRef(ref);
+        if (r == null) {
+            return null;
+        }
+        final ObjectId id = getRefTarget(r);
+        if (id == null || getObjectType(id) != Constants.OBJ_COMMIT) {
+            return null;
+        }
+        try (final RevWalk walk = new RevWalk(repo)) {
+            return Try.io(() -> walk.parseCommit(id));
+        }
+    }
+
     /**
      * Iterates over all notes in the given map, passing each commit ID and note body.
      */
@@ -429,6 +580,50 @@ public class RepositoryAccess implements AutoCloseable {
         });
     }
 
+    /**
+     * Returns the index of the notes for the specified ref, reading it at the first call.
+     *
+     * <p>The index maps each annotated object ID to its note body parsed as an object ID,
+     * so that a lookup is a single hash probe. Notes whose body is not an object ID are
+     * not indexed.</p>
+     */
+    public ObjectIdMap getNoteIndex(final String noteRef) {
+        return noteIndexCache.computeIfAbsent(noteRef, this::readNoteIndex);
+    }
+
+    /**
+     * Reads all the notes of the specified ref into an index in one pass over the notes tree,
+     * reading the tree and the note bodies through a single object reader.
+     */
+    public ObjectIdMap readNoteIndex(final String noteRef) {
+        final ObjectIdMap result = new ObjectIdMap();
+        final Ref ref = getRef(noteRef);
+        if (ref == null) {
+            return result;
+        }
+        Try.io(() -> {
+            try (final ObjectReader reader = repo.newObjectReader();
+                 final TreeWalk tw = new TreeWalk(reader)) {
+                final RevCommit commit = RevCommit.parse(reader.open(getRefTarget(ref), Constants.OBJ_COMMIT).getCachedBytes());
+                tw.addTree(commit.getTree());
+                tw.setRecursive(true);
+                while (tw.next()) {
+                    // fan-out paths, e.g., "ab/cdef...", spell the annotated ID without the slashes
+                    final String name = tw.getPathString().replace("/", "");
+                    if (!ObjectId.isId(name) || !tw.getFileMode(0).equals(FileMode.REGULAR_FILE)) {
+                        continue;
+                    }
+                    final String body = new String(reader.open(tw.getObjectId(0), Constants.OBJ_BLOB).getCachedBytes(), StandardCharsets.UTF_8);
+                    if (ObjectId.isId(body)) {
+                        result.put(ObjectId.fromString(name), ObjectId.fromString(body));
+                    }
+                }
+            }
+        });
+        log.debug("Read {} notes of {} into an index", result.size(), noteRef);
+        return result;
+    }
+
     /**
      * Writes a tag object.
      */
@@ -494,7 +689,7 @@ public class RepositoryAccess implements AutoCloseable {
      * Opens an {@link ObjectInserter} and executes the given operation, then closes it.
      */
     public void openInserter(final Consumer<ObjectInserter> f) {
-        try (final ObjectInserter ins = repo.newObjectInserter()) {
+        try (final ObjectInserter ins = getInserter()) {
             f.accept(ins);
             Try.io(ins::flush);
         }
@@ -502,8 +697,14 @@ public class RepositoryAccess implements AutoCloseable {
 
     /**
      * Creates a new {@link ObjectInserter}. The caller is responsible for closing it.
+     *
+     * <p>With a pack size limit, the inserter writes into pack files, and the objects
+     * become visible to other readers only when it is flushed or a pack is completed.</p>
      */
     public ObjectInserter getInserter() {
+        if (packSizeLimit > 0 && repo instanceof FileRepository) {
+            return new RollingPackInserter(((FileRepository) repo).getObjectDatabase(), packSizeLimit);
+        }
         return repo.newObjectInserter();
     }
 
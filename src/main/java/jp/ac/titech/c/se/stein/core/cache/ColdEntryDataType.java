@@ -0,0 +1,59 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+
+/**
+ * A compact binary MVStore data type for {@link AnyColdEntry}.
+ *
+ * <p>A value is written as the number of entries (varint) followed by the entries in the
+ * format of {@link EntryDataType}: 0 for {@link AnyColdEntry.Empty}, 1 for a single
+ * {@link Entry}, and more for {@link AnyColdEntry.Set}.</p>
+ */
+public class ColdEntryDataType extends BasicDataType<AnyColdEntry> {
+    public static final ColdEntryDataType INSTANCE = new ColdEntryDataType();
+
+    @Override
+    public int getMemory(final AnyColdEntry value) {
+        return 16 + value.stream().mapToInt(EntryDataType.INSTANCE::getMemory).sum();
+    }
+
+    @Override
+    public void write(final WriteBuffer buff, final AnyColdEntry value) {
+        if (value instanceof Entry entry) {
+            buff.putVarInt(1);
+            EntryDataType.writeEntry(buff, entry);
+            return;
+        }
+        buff.putVarInt(value.size());
+        value.stream().forEach(e -> EntryDataType.writeEntry(buff, e));
+    }
+
+    @Override
+    public AnyColdEntry read(final ByteBuffer buff) {
+        final int size = DataUtils.readVarInt(buff);
+        return switch (size) {
+            case 0 -> AnyColdEntry.empty();
+            case 1 -> EntryDataType.readEntry(buff);
+            default -> {
+                final List<Entry> entries = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    entries.add(EntryDataType.readEntry(buff));
+                }
+                yield AnyColdEntry.set(entries);
+            }
+        };
+    }
+
+    @Override
+    public AnyColdEntry[] createStorage(final int size) {
+        return new AnyColdEntry[size];
+    }
+}
@@ -0,0 +1,221 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import lombok.Getter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, sorted sidecar file of source-to-target commit ID pairs.
+ *
+ * <p>The file consists of a 40-byte header followed by fixed 40-byte records
+ * (20 raw bytes of the source ID and 20 raw bytes of the target ID) sorted by the
+ * source ID. It is memory-mapped and looked up by binary search, so a lookup costs
+ * no heap beyond the returned ID, however many commits the target has.</p>
+ *
+ * <p>The header records the notes commit the file was built from. A file whose notes
+ * commit differs from the current one is stale (e.g., the notes were rewritten by
+ * another tool) and is not opened; the caller rebuilds it from the notes instead.</p>
+ */
+public class CommitMapFile {
+    private static final Logger log = LoggerFactory.getLogger(CommitMapFile.class);
+
+    public static final String FILE_NAME = "git-stein-commits.idx";
+
+    static final int MAGIC = 0x4753434d; // "GSCM"
+
+    static final int FORMAT_VERSION = 1;
+
+    static final int RECORD_SIZE = 2 * Constants.OBJECT_ID_LENGTH;
+
+    static final int HEADER_SIZE = RECORD_SIZE;
+
+    /**
+     * The number of records per mapped segment; keeps each mapping below 2 GiB.
+     */
+    static final int RECORDS_PER_SEGMENT = 1 << 24;
+
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * The number of records.
+     */
+    @Getter
+    private final long size;
+
+    private CommitMapFile(final MappedByteBuffer[] segments, final long size) {
+        this.segments = segments;
+        this.size = size;
+    }
+
+    /**
+     * Opens the sidecar file if it exists and was built from the given notes commit.
+     *
+     * @return the mapped file, or {@code null} if it is missing, stale, or broken
+     */
+    public static CommitMapFile open(final Path file, final ObjectId notesId) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (final FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long length = ch.size();
+            if (length < HEADER_SIZE || (length - HEADER_SIZE) % RECORD_SIZE != 0) {
+                log.warn("Ignoring broken commit map file: {}", file);
+                return null;
+            }
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && ch.read(header) >= 0) {
+                // fill the header
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                log.info("Ignoring commit map file of an unknown format: {}", file);
+                return null;
+            }
+            final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+            header.get(raw);
+            final long size = header.getLong();
+            if (size != (length - HEADER_SIZE) / RECORD_SIZE) {
+                log.warn("Ignoring truncated commit map file: {}", file);
+                return null;
+            }
+            if (notesId == null || !notesId.equals(ObjectId.fromRaw(raw))) {
+                log.info("Commit map file is stale: {}", file);
+                return null;
+            }
+            final int n = (int) ((size + RECORDS_PER_SEGMENT - 1) / RECORDS_PER_SEGMENT);
+            final MappedByteBuffer[] segments = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                final long first = (long) i * RECORDS_PER_SEGMENT;
+                final long count = Math.min(RECORDS_PER_SEGMENT, size - first);
+                segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * RECORD_SIZE, count * RECORD_SIZE);
+            }
+            return new CommitMapFile(segments, size);
+        } catch (final IOException e) {
+            log.warn("Failed to open commit map file {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the target commit ID of the given source commit ID.
+     */
+    public ObjectId get(final ObjectId key) {
+        final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        long lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            final long mid = (lo + hi) >>> 1;
+            readSource(mid, raw);
+            final int cmp = key.compareTo(raw, 0);
+            if (cmp > 0) {
+                lo = mid + 1;
+            } else if (cmp < 0) {
+                hi = mid - 1;
+            } else {
+                readTarget(mid, raw);
+                return ObjectId.fromRaw(raw);
+            }
+        }
+        return null;
+    }
+
+    private void readSource(final long index, final byte[] dst) {
+        final ByteBuffer seg = segments[(int) (index / RECORDS_PER_SEGMENT)];
+        seg.get((int) (index % RECORDS_PER_SEGMENT) * RECORD_SIZE, dst, 0, Constants.OBJECT_ID_LENGTH);
+    }
+
+    private void readTarget(final long index, final byte[] dst) {
+        final ByteBuffer seg = segments[(int) (index / RECORDS_PER_SEGMENT)];
+        seg.get((int) (index % RECORDS_PER_SEGMENT) * RECORD_SIZE + Constants.OBJECT_ID_LENGTH, dst, 0, Constants.OBJECT_ID_LENGTH);
+    }
+
+    /**
+     * Writes a new sidecar file merging the records of the base file (if any) with the
+     * given additions. On duplicate source IDs, the additions win.
+     *
+     * <p>The file is written to a temporary file and atomically moved into place, so
+     * that a concurrent reader never observes a partial file. Mappings of the old file
+     * remain valid after the move.</p>
+     *
+     * @param base the existing file to merge, or {@code null}
+     * @param additions the new pairs, in any order
+     * @param notesId the notes commit the merged file corresponds to
+     */
+    public static void write(final Path file, final CommitMapFile base, final Map<ObjectId, ObjectId> additions, final ObjectId notesId) throws IOException {
+        final List<Map.Entry<ObjectId, ObjectId>> sorted = new ArrayList<>(additions.entrySet());
+        sorted.sort(Map.Entry.comparingByKey(Comparator.naturalOrder()));
+
+        final long baseSize = base != null ? base.size : 0;
+        final Path tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+        try {
+            long count = 0;
+            try (final FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                // the header is written last, once the count is known
+                ch.position(HEADER_SIZE);
+                final OutputStream os = new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16);
+                final byte[] src = new byte[Constants.OBJECT_ID_LENGTH];
+                final byte[] dst = new byte[Constants.OBJECT_ID_LENGTH];
+                long i = 0;
+                int j = 0;
+                while (i < baseSize || j < sorted.size()) {
+                    final int cmp;
+                    if (i >= baseSize) {
+                        cmp = 1;
+                    } else {
+                        base.readSource(i, src);
+                        // AnyObjectId#compareTo(byte[], int) compares the ID with the raw bytes
+                        cmp = j >= sorted.size() ? -1 : -Integer.signum(sorted.get(j).getKey().compareTo(src, 0));
+                    }
+                    if (cmp < 0) {
+                        base.readTarget(i++, dst);
+                        os.write(src);
+                        os.write(dst);
+                    } else {
+                        if (cmp == 0) {
+                            i++;
+                        }
+                        final Map.Entry<ObjectId, ObjectId> e = sorted.get(j++);
+                        e.getKey().copyRawTo(src, 0);
+                        e.getValue().copyRawTo(dst, 0);
+                        os.write(src);
+                        os.write(dst);
+                    }
+                    count++;
+                }
+                os.flush();
+
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(FORMAT_VERSION);
+                final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+                notesId.copyRawTo(raw, 0);
+                header.put(raw).putLong(count);
+                header.flip();
+                ch.position(0);
+                while (header.hasRemaining()) {
+                    ch.write(header);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Wrote commit map file with {} entries: {}", count, file);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -8,12 +8,15 @@ import org.eclipse.jgit.lib.Ref;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 /**
  * Manages source-to-target commit ID mapping with support for notes-based restoration.
@@ -30,12 +33,17 @@ import java.util.Set;
  * already-processed commits. This covers the common case (linear history, no merges
  * from old branches). If a merge commit references an old source commit not reachable
  * from any current ref tip, the mapping will miss, and a full scan of all target notes
- * is triggered lazily (at most once) to load the remaining entries.</p>
+ * is answered from a compact sorted sidecar file ({@link CommitMapFile}) in the target
+ * repository directory, without loading the notes into the heap. When the sidecar is
+ * missing or stale, it is rebuilt from a full scan of the target notes (at most once),
+ * and it is updated with the new mappings at the end of each run.</p>
+ *
+ * <p>The mapping is safe for concurrent use, since commits may be written in parallel.</p>
  */
 public class CommitMapping extends AbstractMap<ObjectId, ObjectId> {
     private static final Logger log = LoggerFactory.getLogger(CommitMapping.class);
 
-    private final Map<ObjectId, ObjectId> map = new HashMap<>();
+    private final Map<ObjectId, ObjectId> map = new ConcurrentObjectIdMap();
 
     /**
      * Source commit IDs of previously processed ref tips.
@@ -47,6 +55,18 @@ public class CommitMapping extends AbstractMap<ObjectId, ObjectId> {
     private NoteObjectIdMap notesMap;
     private volatile boolean notesFullyLoaded = false;
 
+    /**
+     * The sidecar file location, or {@code null} if the target has no directory.
+     */
+    private Path indexFile;
+
+    private volatile CommitMapFile index;
+
+    /**
+     * The notes commit read at restoration.
+     */
+    private ObjectId notesId;
+
     /**
      * Restores commit mapping from the target repository's notes.
      * Only ref tips are read eagerly.
@@ -54,12 +74,23 @@ public class CommitMapping extends AbstractMap<ObjectId, ObjectId> {
      * @param notesRef the notes ref to read from (e.g., {@code refs/notes/git-stein-prev})
      */
     public void restoreFromTarget(RepositoryAccess target, String notesRef) {
+        final File dir = target.repo.getDirectory();
+        indexFile = dir != null ? dir.toPath().resolve(CommitMapFile.FILE_NAME) : null;
+
         final List<Ref> targetRefs = target.getRefs();
         if (targetRefs.isEmpty()) {
             return;
         }
 
         notesMap = new NoteObjectIdMap(target.readNotes(notesRef), target);
+        final Ref notes = target.getRef(notesRef);
+        notesId = notes != null ? notes.getObjectId() : null;
+        if (indexFile != null && notesId != null) {
+            index = CommitMapFile.open(indexFile, notesId);
+            if (index != null) {
+                log.debug("Opened commit map file with {} entries", index.getSize());
+            }
+        }
 
         for (final Ref ref : targetRefs) {
             final ObjectId targetTipId = target.getRefTarget(ref);
@@ -88,7 +119,16 @@ public class CommitMapping extends AbstractMap<ObjectId, ObjectId> {
         if (v != null) {
             return v;
         }
-        if (!notesFullyLoaded && notesMap != null) {
+        if (!(key instanceof ObjectId) || notesMap == null) {
+            return null;
+        }
+        if (index == null && !notesFullyLoaded) {
+            buildIndex();
+        }
+        if (index != null) {
+            return index.get((ObjectId) key);
+        }
+        if (!notesFullyLoaded) {
             loadAllNotes();
             return map.get(key);
         }
@@ -111,8 +151,71 @@ public class CommitMapping extends AbstractMap<ObjectId, ObjectId> {
     }
 
     /**
-     * Loads all notes into the mapping. Called at most once, when a lookup
-     * misses on a commit not reachable from any ref tip (e.g., old merge parent).
+     * Rebuilds the missing or stale sidecar file from a full scan of the notes.
+     * Called at most once, when a lookup misses on a commit not reachable from any ref tip.
+     */
+    private synchronized void buildIndex() {
+        if (index != null || indexFile == null || notesId == null) {
+            return;
+        }
+        log.info("Rebuilding commit map file from notes");
+        final Map<ObjectId, ObjectId> all = new ObjectIdMap();
+        notesMap.forEach((targetId, sourceId) -> all.put(sourceId, targetId));
+        try {
+            CommitMapFile.write(indexFile, null, all, notesId);
+            index = CommitMapFile.open(indexFile, notesId);
+        } catch (final IOException e) {
+            log.warn("Failed to write commit map file {}: {}", indexFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Updates the sidecar file with the mappings of this run.
+     *
+     * <p>The new mappings are merged into the existing sidecar. If the sidecar was
+     * missing or stale, it is rebuilt from the notes read at restoration first.</p>
+     *
+     * @param newNotesId the notes commit written in this run, which the updated file corresponds to
+     */
+    public synchronized void saveIndex(final ObjectId newNotesId) {
+        if (indexFile == null || newNotesId == null) {
+            return;
+        }
+        if (index == null && notesId != null) {
+            buildIndex();
+            if (index == null) {
+                // never write a file that lacks the mappings of the previous runs
+                return;
+            }
+        }
+        try {
+            CommitMapFile.write(indexFile, index, map, newNotesId);
+            notesId = newNotesId;
+            index = CommitMapFile.open(indexFile, newNotesId);
+        } catch (final IOException e) {
+            log.warn("Failed to write commit map file {}: {}", indexFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Iterates over the mappings of all the commits, those recorded in the notes as well as those
+     * in memory, passing each source and target commit ID. The notes are read one by one, without
+     * being loaded into the mapping.
+     */
+    public void forEachMapping(final BiConsumer<ObjectId, ObjectId> f) {
+        map.forEach(f);
+        if (notesMap != null && !notesFullyLoaded) {
+            notesMap.forEach((targetId, sourceId) -> {
+                if (!map.containsKey(sourceId)) {
+                    f.accept(sourceId, targetId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads all notes into the mapping. Called at most once, when the sidecar file
+     * is not available.
      */
     private synchronized void loadAllNotes() {
         if (notesFullyLoaded) {
@@ -0,0 +1,159 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * A thread-safe variant of {@link ObjectIdMap}, striped over segments each guarded by its own lock.
+ *
+ * <p>The segment is selected by the first byte of the key, which is independent of the
+ * word used for the slot within a segment. Iteration takes a snapshot of one segment at
+ * a time, so it is weakly consistent, like that of {@link java.util.concurrent.ConcurrentHashMap}.</p>
+ */
+public class ConcurrentObjectIdMap extends AbstractMap<ObjectId, ObjectId> {
+    private static final int SEGMENTS = 64;
+
+    private final ObjectIdMap[] segments = new ObjectIdMap[SEGMENTS];
+
+    public ConcurrentObjectIdMap() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            // start small, since a mapping may hold only a few entries
+            segments[i] = new ObjectIdMap(0);
+        }
+    }
+
+    private ObjectIdMap segmentOf(final AnyObjectId key) {
+        return segments[key.getFirstByte() & (SEGMENTS - 1)];
+    }
+
+    @Override
+    public ObjectId get(final Object key) {
+        if (!(key instanceof AnyObjectId)) {
+            return null;
+        }
+        final ObjectIdMap segment = segmentOf((AnyObjectId) key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        if (!(key instanceof AnyObjectId)) {
+            return false;
+        }
+        final ObjectIdMap segment = segmentOf((AnyObjectId) key);
+        synchronized (segment) {
+            return segment.containsKey(key);
+        }
+    }
+
+    @Override
+    public ObjectId put(final ObjectId key, final ObjectId value) {
+        final ObjectIdMap segment = segmentOf(key);
+        synchronized (segment) {
+            return segment.put((AnyObjectId) key, value);
+        }
+    }
+
+    @Override
+    public ObjectId putIfAbsent(final ObjectId key, final ObjectId value) {
+        final ObjectIdMap segment = segmentOf(key);
+        synchronized (segment) {
+            final ObjectId prev = segment.get(key);
+            return prev != null ? prev : segment.put((AnyObjectId) key, value);
+        }
+    }
+
+    @Override
+    public int size() {
+        int result = 0;
+        for (final ObjectIdMap segment : segments) {
+            synchronized (segment) {
+                result += segment.size();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        for (final ObjectIdMap segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public void forEach(final BiConsumer<? super ObjectId, ? super ObjectId> action) {
+        for (final ObjectIdMap segment : segments) {
+            synchronized (segment) {
+                segment.forEach(action);
+            }
+        }
+    }
+
+    /**
+     * Returns the approximate number of bytes retained by the segments.
+     */
+    public long getMemory() {
+        long result = 0;
+        for (final ObjectIdMap segment : segments) {
+            synchronized (segment) {
+                result += segment.getMemory();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Set<Entry<ObjectId, ObjectId>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return ConcurrentObjectIdMap.this.size();
+            }
+
+            @Override
+            public Iterator<Entry<ObjectId, ObjectId>> iterator() {
+                return new Iterator<>() {
+                    private int index = 0;
+
+                    private Iterator<Entry<ObjectId, ObjectId>> current = Collections.emptyIterator();
+
+                    @Override
+                    public boolean hasNext() {
+                        while (!current.hasNext() && index < SEGMENTS) {
+                            final ObjectIdMap segment = segments[index++];
+                            final List<Entry<ObjectId, ObjectId>> snapshot;
+                            synchronized (segment) {
+                                snapshot = new ArrayList<>(segment.entrySet());
+                            }
+                            current = snapshot.iterator();
+                        }
+                        return current.hasNext();
+                    }
+
+                    @Override
+                    public Entry<ObjectId, ObjectId> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return current.next();
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,105 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+
+import jp.ac.titech.c.se.stein.entry.Entry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+
+/**
+ * A compact binary MVStore data type for {@link Entry}.
+ *
+ * <p>An entry is written as the mode (varint), the name (length-prefixed UTF-8), the object ID
+ * (20 raw bytes), and the directory (length-prefixed UTF-8, where length 0 means {@code null}
+ * and the others are off by one). Entries are ordered by object ID first, so that the keys
+ * of the same object are stored together.</p>
+ */
+public class EntryDataType extends BasicDataType<Entry> {
+    public static final EntryDataType INSTANCE = new EntryDataType();
+
+    @Override
+    public int getMemory(final Entry entry) {
+        return 64 + 2 * entry.name.length() + (entry.directory != null ? 2 * entry.directory.length() : 0);
+    }
+
+    @Override
+    public void write(final WriteBuffer buff, final Entry entry) {
+        writeEntry(buff, entry);
+    }
+
+    @Override
+    public Entry read(final ByteBuffer buff) {
+        return readEntry(buff);
+    }
+
+    @Override
+    public int compare(final Entry a, final Entry b) {
+        int result = a.id.compareTo(b.id);
+        if (result == 0) {
+            result = Integer.compare(a.mode, b.mode);
+        }
+        if (result == 0) {
+            result = a.name.compareTo(b.name);
+        }
+        if (result == 0 && a.directory != b.directory) {
+            if (a.directory == null) {
+                return -1;
+            } else if (b.directory == null) {
+                return 1;
+            }
+            result = a.directory.compareTo(b.directory);
+        }
+        return result;
+    }
+
+    @Override
+    public Entry[] createStorage(final int size) {
+        return new Entry[size];
+    }
+
+    static void writeEntry(final WriteBuffer buff, final Entry entry) {
+        buff.putVarInt(entry.mode);
+        final byte[] name = entry.name.getBytes(UTF_8);
+        buff.putVarInt(name.length).put(name);
+        final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        entry.id.copyRawTo(raw, 0);
+        buff.put(raw);
+        writeNullableString(buff, entry.directory);
+    }
+
+    static Entry readEntry(final ByteBuffer buff) {
+        final int mode = DataUtils.readVarInt(buff);
+        final String name = readString(buff, DataUtils.readVarInt(buff));
+        final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        buff.get(raw);
+        return Entry.of(mode, name, ObjectId.fromRaw(raw), readNullableString(buff));
+    }
+
+    /**
+     * Writes a string that may be {@code null}, as its length plus one (0 for {@code null}) and its UTF-8 bytes.
+     */
+    static void writeNullableString(final WriteBuffer buff, final String s) {
+        if (s == null) {
+            buff.putVarInt(0);
+        } else {
+            final byte[] bytes = s.getBytes(UTF_8);
+            buff.putVarInt(bytes.length + 1).put(bytes);
+        }
+    }
+
+    static String readNullableString(final ByteBuffer buff) {
+        final int length = DataUtils.readVarInt(buff);
+        return length == 0 ? null : readString(buff, length - 1);
+    }
+
+    private static String readString(final ByteBuffer buff, final int length) {
+        final byte[] bytes = new byte[length];
+        buff.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,81 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+
+/**
+ * A mapping from source entries to their rewritten results, supporting lookups and insertions only.
+ */
+public interface EntryMapping {
+    /**
+     * Returns the rewritten result of the given entry, or {@code null} if absent.
+     */
+    AnyColdEntry get(Entry entry);
+
+    /**
+     * Stores the rewritten result of the given entry.
+     */
+    void put(Entry entry, AnyColdEntry result);
+
+    /**
+     * Returns the number of mappings.
+     */
+    long size();
+
+    /**
+     * Returns an iterator over the mappings. The iteration is weakly consistent: it does not
+     * fail on concurrent insertions, which may or may not be reflected.
+     */
+    Iterator<Map.Entry<Entry, AnyColdEntry>> entries();
+
+    /**
+     * Returns a {@link Map} view of this mapping. Removals are not supported.
+     */
+    default Map<Entry, AnyColdEntry> asMap() {
+        final EntryMapping self = this;
+        // Inside a Map, the simple name Entry denotes Map.Entry
+        return new AbstractMap<jp.ac.titech.c.se.stein.entry.Entry, AnyColdEntry>() {
+            @Override
+            public AnyColdEntry get(final Object key) {
+                return key instanceof jp.ac.titech.c.se.stein.entry.Entry e ? self.get(e) : null;
+            }
+
+            @Override
+            public boolean containsKey(final Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public AnyColdEntry put(final jp.ac.titech.c.se.stein.entry.Entry key, final AnyColdEntry value) {
+                self.put(key, value);
+                return null;
+            }
+
+            @Override
+            public int size() {
+                return (int) Math.min(Integer.MAX_VALUE, self.size());
+            }
+
+            @Override
+            public Set<Entry<jp.ac.titech.c.se.stein.entry.Entry, AnyColdEntry>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<jp.ac.titech.c.se.stein.entry.Entry, AnyColdEntry>> iterator() {
+                        return self.entries();
+                    }
+
+                    @Override
+                    public int size() {
+                        return (int) Math.min(Integer.MAX_VALUE, self.size());
+                    }
+                };
+            }
+        };
+    }
+}
@@ -11,6 +11,7 @@ import java.util.function.BiConsumer;
 /**
  * A view over a JGit NoteMap that interprets note bodies as ObjectIds (hex-encoded).
  * Supports both reading (get, forEach) and writing (add).
+ * Accesses are serialized, since the underlying NoteMap is not thread-safe.
  */
 public class NoteObjectIdMap {
     private final NoteMap notes;
@@ -31,14 +32,14 @@ public class NoteObjectIdMap {
     /**
      * Reads the note on the given commit as an ObjectId.
      */
-    public ObjectId get(ObjectId commitId) {
+    public synchronized ObjectId get(ObjectId commitId) {
         return parseObjectId(ra.readNote(notes, commitId));
     }
 
     /**
      * Adds a note recording the given value as the note body on the given commit.
      */
-    public void add(ObjectId commitId, ObjectId value, Context c) {
+    public synchronized void add(ObjectId commitId, ObjectId value, Context c) {
         final byte[] content = new byte[Constants.OBJECT_ID_STRING_LENGTH];
         value.copyTo(content, 0);
         ra.addNote(notes, commitId, content, c);
@@ -47,14 +48,14 @@ public class NoteObjectIdMap {
     /**
      * Adds a note by forwarding raw note bytes (for chain forwarding).
      */
-    public void addRaw(ObjectId commitId, byte[] rawNote, Context c) {
+    public synchronized void addRaw(ObjectId commitId, byte[] rawNote, Context c) {
         ra.addNote(notes, commitId, rawNote, c);
     }
 
     /**
      * Iterates all notes, passing (annotatedId, bodyAsObjectId) pairs.
      */
-    public void forEach(BiConsumer<ObjectId, ObjectId> consumer) {
+    public synchronized void forEach(BiConsumer<ObjectId, ObjectId> consumer) {
         ra.forEachNote(notes, (annotatedId, body) -> {
             final ObjectId bodyId = parseObjectId(body);
             if (bodyId != null) {
@@ -66,7 +67,7 @@ public class NoteObjectIdMap {
     /**
      * Writes the notes to the repository under the given ref.
      */
-    public void write(String ref, Context c) {
+    public synchronized void write(String ref, Context c) {
         ra.writeNotes(notes, ref, c);
     }
 
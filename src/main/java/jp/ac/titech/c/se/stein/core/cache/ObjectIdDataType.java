@@ -0,0 +1,52 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+
+/**
+ * An MVStore data type for {@link ObjectId}, written as 20 raw bytes.
+ */
+public class ObjectIdDataType extends BasicDataType<ObjectId> {
+    public static final ObjectIdDataType INSTANCE = new ObjectIdDataType();
+
+    @Override
+    public int getMemory(final ObjectId id) {
+        return 40;
+    }
+
+    @Override
+    public void write(final WriteBuffer buff, final ObjectId id) {
+        writeId(buff, id);
+    }
+
+    @Override
+    public ObjectId read(final ByteBuffer buff) {
+        return readId(buff);
+    }
+
+    @Override
+    public int compare(final ObjectId a, final ObjectId b) {
+        return a.compareTo(b);
+    }
+
+    @Override
+    public ObjectId[] createStorage(final int size) {
+        return new ObjectId[size];
+    }
+
+    static void writeId(final WriteBuffer buff, final ObjectId id) {
+        final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        id.copyRawTo(raw, 0);
+        buff.put(raw);
+    }
+
+    static ObjectId readId(final ByteBuffer buff) {
+        final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        buff.get(raw);
+        return ObjectId.fromRaw(raw);
+    }
+}
@@ -0,0 +1,200 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * A compact map from {@link ObjectId} to {@link ObjectId}.
+ *
+ * <p>The keys and the values are stored as five-word runs in parallel {@code int[]}
+ * arrays, and the occupied slots in a {@code long[]} bit set, using open addressing
+ * with linear probing. The hash code of the key (its second word) is used as is
+ * without mixing, so this class relies on the keys being uniformly distributed, as
+ * SHA-1 object IDs are; keys sharing that word (e.g., synthetic IDs) degrade probing
+ * to a linear scan. An entry costs 40 bytes of payload plus
+ * the load-factor slack, instead of two {@link ObjectId} objects and a hash node.</p>
+ *
+ * <p>{@link ObjectId} instances are created only on reads. Removal is not supported.
+ * This class is not thread-safe.</p>
+ */
+public class ObjectIdMap extends AbstractMap<ObjectId, ObjectId> {
+    static final int WORDS = 5;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final int MIN_CAPACITY = 4;
+
+    private int[] keys;
+
+    private int[] values;
+
+    private long[] used;
+
+    private int mask;
+
+    private int size;
+
+    public ObjectIdMap() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expected the expected number of entries
+     */
+    public ObjectIdMap(final int expected) {
+        allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expected * 4 / 3)) << 1));
+    }
+
+    private void allocate(final int capacity) {
+        keys = new int[capacity * WORDS];
+        values = new int[capacity * WORDS];
+        used = new long[(capacity + 63) >>> 6];
+        mask = capacity - 1;
+    }
+
+    private boolean isUsed(final int slot) {
+        return (used[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Finds the slot of the given key, or the empty slot where it would be inserted.
+     */
+    private int find(final AnyObjectId key) {
+        int slot = key.hashCode() & mask;
+        while (isUsed(slot) && key.compareTo(keys, slot * WORDS) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    @Override
+    public ObjectId get(final Object key) {
+        if (!(key instanceof AnyObjectId)) {
+            return null;
+        }
+        final int slot = find((AnyObjectId) key);
+        return isUsed(slot) ? ObjectId.fromRaw(values, slot * WORDS) : null;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return key instanceof AnyObjectId && isUsed(find((AnyObjectId) key));
+    }
+
+    @Override
+    public ObjectId put(final ObjectId key, final ObjectId value) {
+        return put((AnyObjectId) key, value);
+    }
+
+    /**
+     * Associates the value with the key, copying both IDs into the arrays.
+     */
+    public ObjectId put(final AnyObjectId key, final AnyObjectId value) {
+        int slot = find(key);
+        if (isUsed(slot)) {
+            final ObjectId prev = ObjectId.fromRaw(values, slot * WORDS);
+            value.copyRawTo(values, slot * WORDS);
+            return prev;
+        }
+        if ((size + 1) * 4L > (mask + 1) * 3L) {
+            grow();
+            slot = find(key);
+        }
+        key.copyRawTo(keys, slot * WORDS);
+        value.copyRawTo(values, slot * WORDS);
+        used[slot >>> 6] |= 1L << slot;
+        size++;
+        return null;
+    }
+
+    private void grow() {
+        final int[] oldKeys = keys, oldValues = values;
+        final long[] oldUsed = used;
+        final int oldCapacity = mask + 1;
+        allocate(oldCapacity << 1);
+        for (int i = 0; i < oldCapacity; i++) {
+            if ((oldUsed[i >>> 6] & (1L << i)) != 0) {
+                int slot = oldKeys[i * WORDS + 1] & mask; // the same word as AnyObjectId#hashCode
+                while (isUsed(slot)) {
+                    slot = (slot + 1) & mask;
+                }
+                System.arraycopy(oldKeys, i * WORDS, keys, slot * WORDS, WORDS);
+                System.arraycopy(oldValues, i * WORDS, values, slot * WORDS, WORDS);
+                used[slot >>> 6] |= 1L << slot;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        allocate(DEFAULT_CAPACITY);
+        size = 0;
+    }
+
+    @Override
+    public void forEach(final BiConsumer<? super ObjectId, ? super ObjectId> action) {
+        for (int i = 0; i <= mask; i++) {
+            if (isUsed(i)) {
+                action.accept(ObjectId.fromRaw(keys, i * WORDS), ObjectId.fromRaw(values, i * WORDS));
+            }
+        }
+    }
+
+    /**
+     * Returns the approximate number of bytes retained by the arrays.
+     */
+    public long getMemory() {
+        return 4L * (keys.length + values.length) + 8L * used.length;
+    }
+
+    @Override
+    public Set<Entry<ObjectId, ObjectId>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Entry<ObjectId, ObjectId>> iterator() {
+                return new Iterator<>() {
+                    private int next = advance(0);
+
+                    private int advance(int i) {
+                        while (i <= mask && !isUsed(i)) {
+                            i++;
+                        }
+                        return i;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next <= mask;
+                    }
+
+                    @Override
+                    public Entry<ObjectId, ObjectId> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final int i = next;
+                        next = advance(i + 1);
+                        return new SimpleImmutableEntry<>(ObjectId.fromRaw(keys, i * WORDS), ObjectId.fromRaw(values, i * WORDS));
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,306 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A compact entry mapping stored in off-heap memory.
+ *
+ * <p>Each mapping occupies a fixed-size slot of {@value #SLOT_SIZE} bytes in direct buffers,
+ * holding the mode, the interned name and directory, and the raw object ID of both the source
+ * entry and the rewritten entry. Compared with an on-heap map of {@link Entry} objects, this
+ * takes a fraction of the memory and adds nothing to the garbage collection work.</p>
+ *
+ * <p>Slots are grouped into sets of {@value #WAYS}. An entry can only be placed in the set
+ * selected by its hash, and when the set is full, a victim is chosen by the clock (second
+ * chance) algorithm within the set. Rewritten results that consist of multiple entries,
+ * which only blob translators splitting files produce, are kept in a bounded on-heap map.</p>
+ *
+ */
+public class OffHeapEntryMapping implements EntryMapping {
+    static final int SLOT_SIZE = 72;
+
+    static final int WAYS = 16;
+
+    private static final int SEGMENT_BITS = 24;
+
+    private static final int NLOCKS = 1024;
+
+    // slot layout
+    private static final int STATE = 0; // byte: 0 = free, 1 = used
+    private static final int REFERENCED = 1; // byte: reference bit of the clock
+    private static final int HAND = 2; // byte: clock hand of the set (in the first slot of a set)
+    private static final int COUNT = 4; // int: number of rewritten entries (0 or 1)
+    private static final int KEY = 8;
+    private static final int VALUE = 40;
+
+    // entry layout in KEY and VALUE
+    private static final int MODE = 0;
+    private static final int NAME = 4;
+    private static final int DIRECTORY = 8;
+    private static final int ID = 12;
+
+    private final ByteBuffer[] segments;
+
+    private final int setMask;
+
+    private final Object[] locks = new Object[NLOCKS];
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final Map<Entry, AnyColdEntry> multiples;
+
+    /**
+     * Interned strings (names and directories). ID 0 stands for {@code null}.
+     */
+    private final Map<String, Integer> stringIds = new ConcurrentHashMap<>();
+
+    private volatile String[] strings = new String[1024];
+
+    private int nstrings = 1;
+
+    public OffHeapEntryMapping(final long memoryBudget) {
+        final long nslots = Long.highestOneBit(Math.max(WAYS, memoryBudget / SLOT_SIZE));
+        final long nsets = Math.min(nslots / WAYS, 1L << 30);
+        this.setMask = (int) nsets - 1;
+        final long total = nsets * WAYS;
+        final long perSegment = 1L << SEGMENT_BITS;
+        this.segments = new ByteBuffer[(int) ((total + perSegment - 1) / perSegment)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect((int) (Math.min(perSegment, total - i * perSegment) * SLOT_SIZE));
+        }
+        for (int i = 0; i < NLOCKS; i++) {
+            locks[i] = new Object();
+        }
+        this.multiples = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(1000, nsets))
+                .<Entry, AnyColdEntry>build()
+                .asMap();
+    }
+
+    /**
+     * Returns the number of slots.
+     */
+    public long capacity() {
+        return ((long) setMask + 1) * WAYS;
+    }
+
+    @Override
+    public AnyColdEntry get(final Entry entry) {
+        final int name = lookupString(entry.name);
+        final int directory = lookupString(entry.directory);
+        if (name >= 0 && directory >= 0) {
+            final int set = setOf(entry, name, directory);
+            synchronized (locks[set & (NLOCKS - 1)]) {
+                final long slot = find(set, entry, name, directory);
+                if (slot >= 0) {
+                    final ByteBuffer buf = segmentOf(slot);
+                    final int off = offsetOf(slot);
+                    buf.put(off + REFERENCED, (byte) 1);
+                    return buf.getInt(off + COUNT) == 0 ? AnyColdEntry.empty() : readEntry(buf, off + VALUE);
+                }
+            }
+        }
+        return multiples.get(entry);
+    }
+
+    @Override
+    public void put(final Entry key, final AnyColdEntry value) {
+        final Entry single;
+        if (value instanceof Entry e) {
+            single = e;
+        } else if (value.size() == 0) {
+            single = null;
+        } else {
+            multiples.put(key, value);
+            return;
+        }
+        final int name = internString(key.name);
+        final int directory = internString(key.directory);
+        final int set = setOf(key, name, directory);
+        synchronized (locks[set & (NLOCKS - 1)]) {
+            long slot = find(set, key, name, directory);
+            if (slot < 0) {
+                slot = allocate(set);
+                writeEntry(segmentOf(slot), offsetOf(slot) + KEY, key, name, directory);
+            }
+            final ByteBuffer buf = segmentOf(slot);
+            final int off = offsetOf(slot);
+            if (single != null) {
+                buf.putInt(off + COUNT, 1);
+                writeEntry(buf, off + VALUE, single, internString(single.name), internString(single.directory));
+            } else {
+                buf.putInt(off + COUNT, 0);
+            }
+            buf.put(off + REFERENCED, (byte) 1);
+            buf.put(off + STATE, (byte) 1);
+        }
+    }
+
+    @Override
+    public long size() {
+        return count.get() + multiples.size();
+    }
+
+    /**
+     * Iterates over the used slots, reading each under the lock of its set, and then over
+     * the multiple-entry results.
+     */
+    @Override
+    public Iterator<Map.Entry<Entry, AnyColdEntry>> entries() {
+        final Iterator<Map.Entry<Entry, AnyColdEntry>> slots = new AbstractIterator<>() {
+            private long slot = 0;
+
+            @Override
+            protected Map.Entry<Entry, AnyColdEntry> computeNext() {
+                for (; slot < capacity(); slot++) {
+                    final ByteBuffer buf = segmentOf(slot);
+                    final int off = offsetOf(slot);
+                    synchronized (locks[(int) (slot / WAYS) & (NLOCKS - 1)]) {
+                        if (buf.get(off + STATE) == 1) {
+                            final Entry key = readEntry(buf, off + KEY);
+                            final AnyColdEntry value = buf.getInt(off + COUNT) == 0 ? AnyColdEntry.empty() : readEntry(buf, off + VALUE);
+                            slot++;
+                            return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                        }
+                    }
+                }
+                return endOfData();
+            }
+        };
+        return Iterators.concat(slots, multiples.entrySet().iterator());
+    }
+
+    private int setOf(final Entry entry, final int name, final int directory) {
+        int h = entry.id.hashCode();
+        h = h * 31 + entry.mode;
+        h = h * 31 + name;
+        h = h * 31 + directory;
+        h ^= h >>> 16;
+        return h & setMask;
+    }
+
+    /**
+     * Finds the slot of the given source entry in the set, or returns -1.
+     */
+    private long find(final int set, final Entry entry, final int name, final int directory) {
+        final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        entry.id.copyRawTo(raw, 0);
+        for (int way = 0; way < WAYS; way++) {
+            final long slot = (long) set * WAYS + way;
+            final ByteBuffer buf = segmentOf(slot);
+            final int off = offsetOf(slot);
+            if (buf.get(off + STATE) == 1
+                    && buf.getInt(off + KEY + MODE) == entry.mode
+                    && buf.getInt(off + KEY + NAME) == name
+                    && buf.getInt(off + KEY + DIRECTORY) == directory
+                    && equalsRaw(buf, off + KEY + ID, raw)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Takes a free slot in the set, evicting one by the clock algorithm if the set is full.
+     */
+    private long allocate(final int set) {
+        final long base = (long) set * WAYS;
+        for (int way = 0; way < WAYS; way++) {
+            if (segmentOf(base + way).get(offsetOf(base + way) + STATE) == 0) {
+                count.incrementAndGet();
+                return base + way;
+            }
+        }
+        final ByteBuffer head = segmentOf(base);
+        final int handOffset = offsetOf(base) + HAND;
+        int hand = head.get(handOffset);
+        while (true) {
+            final long slot = base + hand;
+            hand = (hand + 1) % WAYS;
+            final ByteBuffer buf = segmentOf(slot);
+            final int off = offsetOf(slot);
+            if (buf.get(off + REFERENCED) == 0) {
+                head.put(handOffset, (byte) hand);
+                return slot;
+            }
+            buf.put(off + REFERENCED, (byte) 0);
+        }
+    }
+
+    private ByteBuffer segmentOf(final long slot) {
+        return segments[(int) (slot >>> SEGMENT_BITS)];
+    }
+
+    private static int offsetOf(final long slot) {
+        return (int) (slot & ((1L << SEGMENT_BITS) - 1)) * SLOT_SIZE;
+    }
+
+    private static boolean equalsRaw(final ByteBuffer buf, final int off, final byte[] raw) {
+        for (int i = 0; i < raw.length; i++) {
+            if (buf.get(off + i) != raw[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeEntry(final ByteBuffer buf, final int off, final Entry entry, final int name, final int directory) {
+        buf.putInt(off + MODE, entry.mode);
+        buf.putInt(off + NAME, name);
+        buf.putInt(off + DIRECTORY, directory);
+        final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        entry.id.copyRawTo(raw, 0);
+        buf.put(off + ID, raw);
+    }
+
+    private Entry readEntry(final ByteBuffer buf, final int off) {
+        final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        buf.get(off + ID, raw);
+        final String[] ss = strings;
+        return Entry.of(buf.getInt(off + MODE), ss[buf.getInt(off + NAME)], ObjectId.fromRaw(raw), ss[buf.getInt(off + DIRECTORY)]);
+    }
+
+    /**
+     * Returns the ID of an interned string, or -1 if it has not been interned.
+     */
+    private int lookupString(final String s) {
+        if (s == null) {
+            return 0;
+        }
+        final Integer id = stringIds.get(s);
+        return id != null ? id : -1;
+    }
+
+    private int internString(final String s) {
+        final int id = lookupString(s);
+        return id >= 0 ? id : addString(s);
+    }
+
+    private synchronized int addString(final String s) {
+        final Integer existing = stringIds.get(s);
+        if (existing != null) {
+            return existing;
+        }
+        if (nstrings == strings.length) {
+            strings = Arrays.copyOf(strings, nstrings * 2);
+        }
+        final int id = nstrings++;
+        strings[id] = s;
+        stringIds.put(s, id);
+        return id;
+    }
+}
@@ -1,20 +1,96 @@
 package jp.ac.titech.c.se.stein.core.cache;
 
+import jp.ac.titech.c.se.stein.core.RefEntry;
+import jp.ac.titech.c.se.stein.core.Try;
 import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
 import jp.ac.titech.c.se.stein.entry.Entry;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
+import org.h2.mvstore.MVStoreTool;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Persistent entry cache backed by H2 MVStore.
  * Data is stored in a single file ({@code cache.mv.db}) in the target repository's .git directory.
+ *
+ * <p>Entries are stored with the compact binary types {@link EntryDataType} and
+ * {@link ColdEntryDataType} instead of Java serialization. The file records its format version,
+ * and a file of another version (including those written before versioning) is discarded and
+ * rebuilt from scratch.</p>
+ *
+ * <p>Entry mappings are kept in separate namespaces, each of which is keyed by the fingerprint of
+ * the rewriter configuration (see {@link jp.ac.titech.c.se.stein.rewriter.Fingerprint}), so that
+ * a single cache file serves different pipelines without returning results of another one.
+ * Besides the entry mapping, a namespace holds the root tree, tag, and ref mappings.</p>
+ *
+ * <p>While the target receives objects that are written only at the end of the run (see
+ * {@link #markUnflushed()}), the namespace is marked, and a namespace still marked when the
+ * cache is opened again is cleared, so no mapping refers to an object that was never written.</p>
+ *
+ * <p>Insertions into the entry and root tree mappings, which concurrent workers fill, are written
+ * behind by a single writer thread each (see {@link WriteBehindMap}), so that the workers do not
+ * contend on the store.</p>
  */
+@Slf4j
 public class PersistentEntryCache implements AutoCloseable {
+    /**
+     * The version of the storage format. Bump this when the layout of the stored data changes.
+     */
+    public static final int FORMAT_VERSION = 3;
+
+    private static final String INFO_MAP = "info";
+
+    private static final String VERSION_KEY = "version";
+
+    /**
+     * The name of the map from namespaces to the descriptions of their configurations.
+     */
+    private static final String NAMESPACES_MAP = "namespaces";
+
+    private static final String ENTRIES_PREFIX = "entries/";
+
+    private static final String ROOTS_PREFIX = "roots/";
+
+    private static final String TAGS_PREFIX = "tags/";
+
+    private static final String REFS_PREFIX = "refs/";
+
+    /**
+     * The prefix of the info keys marking the namespaces whose mappings may refer to objects
+     * that are not written yet.
+     */
+    private static final String UNFLUSHED_PREFIX = "unflushed/";
+
+    public static final String DEFAULT_NAMESPACE = "default";
+
+    /**
+     * The header of a snapshot file, including the version of the snapshot layout.
+     */
+    private static final String SNAPSHOT_MAGIC = "git-stein-cache/2";
+
     /**
      * Fraction of memoryBudget allocated to the read page cache.
      */
@@ -28,31 +104,342 @@ public class PersistentEntryCache implements AutoCloseable {
 
     private final MVStore store;
 
+    /**
+     * Whether the namespace has been created in this run, i.e., no results are cached yet.
+     */
     @Getter
     private final boolean initial;
 
+    private final WriteBehindEntryMapping entryMapping;
+
+    private final WriteBehindMap<ObjectId, ObjectId> rootTreeMapping;
+
+    private final String namespace;
+
     public PersistentEntryCache(final Repository target, final long memoryBudget) {
-        final Path dbFile = target.getDirectory().toPath().resolve("cache.mv.db");
-        initial = !Files.exists(dbFile);
+        this(target, memoryBudget, DEFAULT_NAMESPACE, DEFAULT_NAMESPACE);
+    }
+
+    /**
+     * Opens the cache of the target repository for maintenance, without selecting a namespace.
+     */
+    public PersistentEntryCache(final Repository target) {
+        this(target, Runtime.getRuntime().maxMemory() / 4, null, null);
+    }
+
+    /**
+     * Opens the cache of the target repository, using the given namespace for the entry mapping.
+     *
+     * @param namespace the namespace (typically a fingerprint) of the entry mapping, or {@code null} for maintenance
+     * @param description a human-readable description of the configuration of the namespace
+     */
+    public PersistentEntryCache(final Repository target, final long memoryBudget, final String namespace, final String description) {
+        final Path dbFile = getFile(target);
         final int cacheSizeMB = (int) Math.max(1, (long) (memoryBudget * READ_CACHE_RATIO) / (1024 * 1024));
         final int autoCommitBufferSizeKB = (int) Math.max(1, (long) (memoryBudget * WRITE_BUFFER_RATIO) / 1024);
-        store = new MVStore.Builder()
+        final MVStore.Builder builder = new MVStore.Builder()
                 .fileName(dbFile.toString())
                 .cacheSize(cacheSizeMB)
-                .autoCommitBufferSize(autoCommitBufferSizeKB)
-                .open();
+                .autoCommitBufferSize(autoCommitBufferSizeKB);
+
+        boolean isFresh = !Files.exists(dbFile);
+        MVStore opened = builder.open();
+        if (!isFresh) {
+            final Integer version = getInfo(opened).get(VERSION_KEY);
+            if (version == null || version != FORMAT_VERSION) {
+                log.info("Rebuilding the persistent cache: format version {} (expected {})", version, FORMAT_VERSION);
+                opened.closeImmediately();
+                Try.io(() -> Files.delete(dbFile));
+                opened = builder.open();
+                isFresh = true;
+            }
+        }
+        if (isFresh) {
+            getInfo(opened).put(VERSION_KEY, FORMAT_VERSION);
+        }
+        store = opened;
+        this.namespace = namespace;
+        final boolean isCleared = clearUnflushed(namespace);
+        if (namespace == null) {
+            initial = isFresh;
+            entryMapping = null;
+            rootTreeMapping = null;
+            return;
+        }
+        final boolean isNewNamespace = getNamespaceMap().putIfAbsent(namespace, description) == null;
+        if (isNewNamespace && !isFresh) {
+            log.info("Persistent cache namespace {} is new: {}", namespace, description);
+        }
+        initial = isNewNamespace || isCleared;
+        entryMapping = new WriteBehindEntryMapping(openEntries(namespace));
+        rootTreeMapping = new WriteBehindMap<>(openIdMap(ROOTS_PREFIX + namespace), "stein-roots-writer");
+    }
+
+    /**
+     * Clears the mappings of the namespaces left marked as unflushed by an unfinished run.
+     * Returns whether the given namespace has been cleared.
+     */
+    private boolean clearUnflushed(final String current) {
+        boolean result = false;
+        final MVMap<String, Integer> info = getInfo(store);
+        for (final String ns : getNamespaces().keySet()) {
+            if (info.remove(UNFLUSHED_PREFIX + ns) != null) {
+                log.warn("Clearing persistent cache namespace {}: its objects were not completely written", ns);
+                openEntries(ns).clear();
+                openIdMap(ROOTS_PREFIX + ns).clear();
+                openIdMap(TAGS_PREFIX + ns).clear();
+                openRefMap(REFS_PREFIX + ns).clear();
+                result |= ns.equals(current);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Marks the namespace as possibly referring to objects that are not written yet,
+     * e.g., unchanged objects whose copies are deferred. The mark is committed at once.
+     */
+    public void markUnflushed() {
+        getInfo(store).put(UNFLUSHED_PREFIX + namespace, 1);
+        store.commit();
+    }
+
+    /**
+     * Clears the mark of {@link #markUnflushed()} once all the objects have been written.
+     */
+    public void markFlushed() {
+        getInfo(store).remove(UNFLUSHED_PREFIX + namespace);
+    }
+
+    /**
+     * Returns the cache file of the given target repository.
+     */
+    public static Path getFile(final Repository target) {
+        return target.getDirectory().toPath().resolve("cache.mv.db");
+    }
+
+    private static MVMap<String, Integer> getInfo(final MVStore store) {
+        return store.openMap(INFO_MAP);
+    }
+
+    private MVMap<String, String> getNamespaceMap() {
+        return store.openMap(NAMESPACES_MAP);
     }
 
-    @SuppressWarnings("unchecked")
     public Map<Entry, AnyColdEntry> getEntryMapping() {
-        return store.openMap("entries");
+        return entryMapping.asMap();
+    }
+
+    /**
+     * Returns the mapping from source root trees to target root trees.
+     */
+    public Map<ObjectId, ObjectId> getRootTreeMapping() {
+        return rootTreeMapping;
+    }
+
+    /**
+     * Returns the mapping from source tags to target tags.
+     */
+    public Map<ObjectId, ObjectId> getTagMapping() {
+        return openIdMap(TAGS_PREFIX + namespace);
+    }
+
+    /**
+     * Returns the mapping from source refs to target refs.
+     */
+    public Map<RefEntry, RefEntry> getRefEntryMapping() {
+        return openRefMap(REFS_PREFIX + namespace);
+    }
+
+    private MVMap<ObjectId, ObjectId> openIdMap(final String name) {
+        return store.openMap(name, new MVMap.Builder<ObjectId, ObjectId>()
+                .keyType(ObjectIdDataType.INSTANCE)
+                .valueType(ObjectIdDataType.INSTANCE));
+    }
+
+    private MVMap<RefEntry, RefEntry> openRefMap(final String name) {
+        return store.openMap(name, new MVMap.Builder<RefEntry, RefEntry>()
+                .keyType(RefEntryDataType.INSTANCE)
+                .valueType(RefEntryDataType.INSTANCE));
+    }
+
+    /**
+     * Returns the namespaces and the descriptions of their configurations.
+     */
+    public Map<String, String> getNamespaces() {
+        return new TreeMap<>(getNamespaceMap());
+    }
+
+    /**
+     * Opens the entry mapping of the given namespace directly, without writing behind.
+     */
+    public MVMap<Entry, AnyColdEntry> openEntries(final String namespace) {
+        return store.openMap(ENTRIES_PREFIX + namespace, new MVMap.Builder<Entry, AnyColdEntry>()
+                .keyType(EntryDataType.INSTANCE)
+                .valueType(ColdEntryDataType.INSTANCE));
+    }
+
+    /**
+     * Removes the entries whose results refer to objects that do not exist in the given repository.
+     * Gitlinks refer to commits of submodules, which the repository does not hold, so they
+     * never count as missing. The root tree, tag, and ref mappings referring to missing objects
+     * are removed as well. Returns the number of removed entries.
+     */
+    public long prune(final Repository target) {
+        long count = 0;
+        try (final ObjectReader reader = target.newObjectReader()) {
+            final Predicate<ObjectId> missing = id -> id != null && !Try.io(() -> reader.has(id));
+            for (final String ns : getNamespaces().keySet()) {
+                final long n = removeIf(openEntries(ns), r -> !exists(r, reader));
+                log.debug("Pruned {} entries in namespace {}", n, ns);
+                count += n;
+                removeIf(openIdMap(ROOTS_PREFIX + ns), missing);
+                removeIf(openIdMap(TAGS_PREFIX + ns), missing);
+                removeIf(openRefMap(REFS_PREFIX + ns), r -> missing.test(r.id));
+            }
+        }
+        store.commit();
+        return count;
+    }
+
+    /**
+     * Removes the keys of the given map whose values satisfy the predicate. Returns the number of removed keys.
+     */
+    private static <K, V> long removeIf(final MVMap<K, V> map, final Predicate<V> predicate) {
+        final List<K> removed = new ArrayList<>();
+        for (final Map.Entry<K, V> e : map.entrySet()) {
+            if (predicate.test(e.getValue())) {
+                removed.add(e.getKey());
+            }
+        }
+        removed.forEach(map::remove);
+        return removed.size();
+    }
+
+    /**
+     * Tests whether the objects the result refers to exist, except for gitlinks.
+     */
+    private static boolean exists(final AnyColdEntry result, final ObjectReader reader) {
+        return result.stream().allMatch(e -> e.isLink() || Try.io(() -> reader.has(e.id)));
+    }
+
+    /**
+     * Writes all the namespaces, with their entry, root tree, tag, and ref mappings, to a
+     * portable snapshot file. Returns the number of written entries.
+     */
+    public long exportSnapshot(final Path file) throws IOException {
+        long count = 0;
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file))))) {
+            out.writeUTF(SNAPSHOT_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            for (final Map.Entry<String, String> ns : getNamespaces().entrySet()) {
+                out.writeBoolean(true);
+                out.writeUTF(ns.getKey());
+                out.writeUTF(ns.getValue());
+                count += writeRecords(out, openEntries(ns.getKey()), EntryDataType.INSTANCE, ColdEntryDataType.INSTANCE);
+                writeRecords(out, openIdMap(ROOTS_PREFIX + ns.getKey()), ObjectIdDataType.INSTANCE, ObjectIdDataType.INSTANCE);
+                writeRecords(out, openIdMap(TAGS_PREFIX + ns.getKey()), ObjectIdDataType.INSTANCE, ObjectIdDataType.INSTANCE);
+                writeRecords(out, openRefMap(REFS_PREFIX + ns.getKey()), RefEntryDataType.INSTANCE, RefEntryDataType.INSTANCE);
+            }
+            out.writeBoolean(false);
+        }
+        return count;
+    }
+
+    /**
+     * Writes the records of the map as length-prefixed binary records, followed by a terminator.
+     * Returns the number of written records.
+     */
+    private static <K, V> long writeRecords(final DataOutputStream out, final Map<K, V> map,
+                                            final BasicDataType<K> keyType, final BasicDataType<V> valueType) throws IOException {
+        long count = 0;
+        final WriteBuffer buff = new WriteBuffer();
+        for (final Map.Entry<K, V> e : map.entrySet()) {
+            buff.clear();
+            keyType.write(buff, e.getKey());
+            valueType.write(buff, e.getValue());
+            out.writeInt(buff.position());
+            out.write(buff.getBuffer().array(), 0, buff.position());
+            count++;
+        }
+        out.writeInt(-1);
+        return count;
+    }
+
+    /**
+     * Merges the namespaces and mappings of a snapshot file into this cache. Records whose
+     * results refer to objects that do not exist in the given repository are skipped.
+     * Returns the number of imported entries.
+     */
+    public long importSnapshot(final Path file, final Repository target) throws IOException {
+        long count = 0;
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))));
+             final ObjectReader reader = target.newObjectReader()) {
+            if (!SNAPSHOT_MAGIC.equals(in.readUTF()) || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Incompatible cache snapshot: " + file);
+            }
+            final Predicate<ObjectId> missing = id -> id != null && !Try.io(() -> reader.has(id));
+            while (in.readBoolean()) {
+                final String namespace = in.readUTF();
+                getNamespaceMap().putIfAbsent(namespace, in.readUTF());
+                final MVMap<Entry, AnyColdEntry> entries = openEntries(namespace);
+                count += readRecords(in, EntryDataType.INSTANCE, ColdEntryDataType.INSTANCE,
+                        (k, v) -> exists(v, reader) && entries.putIfAbsent(k, v) == null);
+                final MVMap<ObjectId, ObjectId> roots = openIdMap(ROOTS_PREFIX + namespace);
+                readRecords(in, ObjectIdDataType.INSTANCE, ObjectIdDataType.INSTANCE,
+                        (k, v) -> !missing.test(v) && roots.putIfAbsent(k, v) == null);
+                final MVMap<ObjectId, ObjectId> tags = openIdMap(TAGS_PREFIX + namespace);
+                readRecords(in, ObjectIdDataType.INSTANCE, ObjectIdDataType.INSTANCE,
+                        (k, v) -> !missing.test(v) && tags.putIfAbsent(k, v) == null);
+                final MVMap<RefEntry, RefEntry> refs = openRefMap(REFS_PREFIX + namespace);
+                readRecords(in, RefEntryDataType.INSTANCE, RefEntryDataType.INSTANCE,
+                        (k, v) -> !missing.test(v.id) && refs.putIfAbsent(k, v) == null);
+            }
+        }
+        store.commit();
+        return count;
+    }
+
+    /**
+     * Reads length-prefixed binary records up to the terminator, passing each to the consumer.
+     * Returns the number of records the consumer accepted.
+     */
+    private static <K, V> long readRecords(final DataInputStream in, final BasicDataType<K> keyType,
+                                           final BasicDataType<V> valueType, final BiPredicate<K, V> consumer) throws IOException {
+        long count = 0;
+        for (int length = in.readInt(); length >= 0; length = in.readInt()) {
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            final ByteBuffer buff = ByteBuffer.wrap(bytes);
+            if (consumer.test(keyType.read(buff), valueType.read(buff))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Compacts the cache file of the given target repository, which must not be open.
+     */
+    public static void compact(final Repository target) {
+        MVStoreTool.compact(getFile(target).toString(), false);
     }
 
     @Override
     public void close() {
         if (store != null && !store.isClosed()) {
-            store.commit();
-            store.close();
+            try {
+                if (entryMapping != null) {
+                    try {
+                        entryMapping.close();
+                    } finally {
+                        rootTreeMapping.close();
+                    }
+                }
+                store.commit();
+            } finally {
+                store.close();
+            }
         }
     }
 }
@@ -0,0 +1,55 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import java.nio.ByteBuffer;
+
+import jp.ac.titech.c.se.stein.core.RefEntry;
+import org.eclipse.jgit.lib.ObjectId;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+
+/**
+ * An MVStore data type for {@link RefEntry}.
+ *
+ * <p>A ref entry is written as the name and the symbolic target (both length-prefixed UTF-8,
+ * possibly {@code null}), followed by a flag and the raw object ID for a direct ref.
+ * {@link RefEntry#EMPTY} is written with a {@code null} name.</p>
+ */
+public class RefEntryDataType extends BasicDataType<RefEntry> {
+    public static final RefEntryDataType INSTANCE = new RefEntryDataType();
+
+    @Override
+    public int getMemory(final RefEntry entry) {
+        return 64 + (entry.name != null ? 2 * entry.name.length() : 0) + (entry.target != null ? 2 * entry.target.length() : 0);
+    }
+
+    @Override
+    public void write(final WriteBuffer buff, final RefEntry entry) {
+        EntryDataType.writeNullableString(buff, entry.name);
+        EntryDataType.writeNullableString(buff, entry.target);
+        buff.put((byte) (entry.id != null ? 1 : 0));
+        if (entry.id != null) {
+            ObjectIdDataType.writeId(buff, entry.id);
+        }
+    }
+
+    @Override
+    public RefEntry read(final ByteBuffer buff) {
+        final String name = EntryDataType.readNullableString(buff);
+        final String target = EntryDataType.readNullableString(buff);
+        final ObjectId id = buff.get() != 0 ? ObjectIdDataType.readId(buff) : null;
+        if (name == null) {
+            return RefEntry.EMPTY;
+        }
+        return target != null ? new RefEntry(name, target) : new RefEntry(name, id);
+    }
+
+    @Override
+    public int compare(final RefEntry a, final RefEntry b) {
+        return a.compareTo(b);
+    }
+
+    @Override
+    public RefEntry[] createStorage(final int size) {
+        return new RefEntry[size];
+    }
+}
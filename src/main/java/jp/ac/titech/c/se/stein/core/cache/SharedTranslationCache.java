@@ -0,0 +1,242 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import jp.ac.titech.c.se.stein.core.RepositoryAccess;
+import jp.ac.titech.c.se.stein.entry.AnyHotEntry;
+import jp.ac.titech.c.se.stein.entry.BlobEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import jp.ac.titech.c.se.stein.entry.HotEntry;
+import jp.ac.titech.c.se.stein.entry.TreeEntry;
+import jp.ac.titech.c.se.stein.util.HashUtils;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A content-addressed cache of blob translation results, shared by multiple repositories.
+ *
+ * <p>Unlike {@link PersistentEntryCache}, which maps entries to objects of a single target
+ * repository, this cache stores the translated contents themselves, so that a repository
+ * can import the results computed for another one (e.g., a fork of the same project).
+ * The results of each rewriter fingerprint are stored under {@code <dir>/<fingerprint>/},
+ * one file per source entry, named by the hash of the entry.</p>
+ *
+ * <p>Files are written to a temporary file and atomically moved into place, so concurrent
+ * processes never observe partial results, and racing writers of the same entry are harmless
+ * as they write the same contents. Each process holds a shared lock on the {@code lock} file of
+ * the namespace while using it, so that maintenance can take the lock exclusively.</p>
+ */
+@Slf4j
+public class SharedTranslationCache implements AutoCloseable {
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte TAG_SOURCE = 'S';
+
+    private static final byte TAG_BLOB = 'B';
+
+    private static final byte TAG_TREE = 'T';
+
+    @Getter
+    private final Path directory;
+
+    private final FileChannel lockChannel;
+
+    private final FileLock lock;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong stores = new AtomicLong();
+
+    public SharedTranslationCache(final Path root, final String fingerprint) throws IOException {
+        this.directory = root.resolve(fingerprint);
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        this.lock = lockChannel.lock(0, Long.MAX_VALUE, true);
+    }
+
+    /**
+     * Tests whether a result of the given source entry is stored.
+     */
+    public boolean contains(final Entry entry) {
+        return Files.exists(pathOf(entry));
+    }
+
+    /**
+     * Returns the stored result of the given source entry, or {@code null} if absent or unreadable.
+     * The results reusing the source blob as is refer to it in the given source repository.
+     */
+    public AnyHotEntry get(final Entry entry, final RepositoryAccess source) {
+        final byte[] data;
+        try {
+            data = Files.readAllBytes(pathOf(entry));
+        } catch (final NoSuchFileException e) {
+            return null;
+        } catch (final IOException e) {
+            log.warn("Failed to read shared cache of {}: {}", entry, e.getMessage());
+            return null;
+        }
+        try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            final int n = in.readInt();
+            final List<HotEntry> entries = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                final HotEntry e = readEntry(in, entry, source);
+                if (e == null) {
+                    return null;
+                }
+                entries.add(e);
+            }
+            hits.incrementAndGet();
+            return n == 0 ? AnyHotEntry.empty() : n == 1 ? entries.get(0) : AnyHotEntry.set(entries);
+        } catch (final IOException e) {
+            log.warn("Broken shared cache of {}: {}", entry, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the result of the given source entry. Results that cannot be shared, i.e., those
+     * referring to source objects other than the entry itself, are ignored.
+     */
+    public void put(final Entry entry, final AnyHotEntry result) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(result.size());
+            for (final HotEntry e : result.stream().collect(Collectors.toList())) {
+                if (!writeEntry(out, e, entry)) {
+                    return;
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final Path path = pathOf(entry);
+        try {
+            Files.createDirectories(path.getParent());
+            final Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temp, bytes.toByteArray());
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                stores.incrementAndGet();
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (final IOException e) {
+            log.warn("Failed to write shared cache of {}: {}", entry, e.getMessage());
+        }
+    }
+
+    private static boolean writeEntry(final DataOutputStream out, final HotEntry e, final Entry key) throws IOException {
+        if (e instanceof BlobEntry.SourceBlob && e.getId().equals(key.id)) {
+            out.writeByte(TAG_SOURCE);
+            writeHeader(out, e);
+        } else if (e instanceof BlobEntry blob) {
+            out.writeByte(TAG_BLOB);
+            writeHeader(out, e);
+            final byte[] content = blob.getBlob();
+            out.writeInt(content.length);
+            out.write(content);
+        } else if (e instanceof TreeEntry.NewTree tree) {
+            out.writeByte(TAG_TREE);
+            out.writeUTF(tree.getName());
+            out.writeInt(tree.getHotEntries().size());
+            for (final HotEntry child : tree.getHotEntries()) {
+                if (!writeEntry(out, child, key)) {
+                    return false;
+                }
+            }
+        } else {
+            // source trees and other source blobs may be absent in other repositories
+            return false;
+        }
+        return true;
+    }
+
+    private static void writeHeader(final DataOutputStream out, final HotEntry e) throws IOException {
+        out.writeInt(e.getMode());
+        out.writeUTF(e.getName());
+        out.writeBoolean(e.getDirectory() != null);
+        if (e.getDirectory() != null) {
+            out.writeUTF(e.getDirectory());
+        }
+    }
+
+    private static HotEntry readEntry(final DataInputStream in, final Entry key, final RepositoryAccess source) throws IOException {
+        final byte tag = in.readByte();
+        switch (tag) {
+            case TAG_SOURCE -> {
+                final int mode = in.readInt();
+                final String name = in.readUTF();
+                final String directory = in.readBoolean() ? in.readUTF() : null;
+                return HotEntry.of(Entry.of(mode, name, key.id, directory), source);
+            }
+            case TAG_BLOB -> {
+                final int mode = in.readInt();
+                final String name = in.readUTF();
+                final String directory = in.readBoolean() ? in.readUTF() : null;
+                final byte[] content = new byte[in.readInt()];
+                in.readFully(content);
+                return HotEntry.of(mode, name, content, directory);
+            }
+            case TAG_TREE -> {
+                final String name = in.readUTF();
+                final int n = in.readInt();
+                final List<HotEntry> children = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    final HotEntry child = readEntry(in, key, source);
+                    if (child == null) {
+                        return null;
+                    }
+                    children.add(child);
+                }
+                return HotEntry.ofTree(name, children);
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns the file of the given source entry.
+     */
+    private Path pathOf(final Entry entry) {
+        final String key = entry.mode + " " + entry.name + " " + entry.id.name()
+                + (entry.directory != null ? " " + entry.directory : "");
+        final String hash = HashUtils.digest(key);
+        return directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    /**
+     * Logs the numbers of imported and stored results.
+     */
+    public void logStats() {
+        log.info("Shared translation cache: {} imported, {} stored", hits.get(), stores.get());
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.release();
+        lockChannel.close();
+    }
+}
@@ -0,0 +1,74 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A two-tier entry mapping: a bounded in-memory tier (L1) in front of the persistent tier (L2).
+ *
+ * <p>Lookups are served by L1 when possible, and otherwise read through to L2; the entries
+ * found in L2 are promoted to L1. Insertions are written to both tiers. Hot entries, such as
+ * the trees near the root that are probed for every commit, are thus served without
+ * deserialization from the persistent store.</p>
+ */
+@Slf4j
+public class TieredEntryMapping implements EntryMapping {
+    private final Map<Entry, AnyColdEntry> l1;
+
+    private final Map<Entry, AnyColdEntry> l2;
+
+    private final AtomicLong l1Hits = new AtomicLong();
+
+    private final AtomicLong l2Hits = new AtomicLong();
+
+    public TieredEntryMapping(final Map<Entry, AnyColdEntry> l1, final Map<Entry, AnyColdEntry> l2) {
+        this.l1 = l1;
+        this.l2 = l2;
+    }
+
+    @Override
+    public AnyColdEntry get(final Entry entry) {
+        AnyColdEntry result = l1.get(entry);
+        if (result != null) {
+            l1Hits.incrementAndGet();
+            return result;
+        }
+        result = l2.get(entry);
+        if (result != null) {
+            l2Hits.incrementAndGet();
+            l1.put(entry, result);
+        }
+        return result;
+    }
+
+    @Override
+    public void put(final Entry entry, final AnyColdEntry result) {
+        l1.put(entry, result);
+        l2.put(entry, result);
+    }
+
+    @Override
+    public long size() {
+        return l2.size();
+    }
+
+    /**
+     * Iterates over L2, which holds every insertion.
+     */
+    @Override
+    public Iterator<Map.Entry<Entry, AnyColdEntry>> entries() {
+        return l2.entrySet().iterator();
+    }
+
+    /**
+     * Logs the hit counts of each tier.
+     */
+    public void logStats() {
+        log.info("Entry mapping tier hits: L1 {}, L2 {}", l1Hits.get(), l2Hits.get());
+    }
+}
@@ -0,0 +1,53 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+
+/**
+ * An entry mapping that defers the insertions into a backing map to a single writer thread.
+ *
+ * @see WriteBehindMap
+ */
+public class WriteBehindEntryMapping implements EntryMapping, AutoCloseable {
+    static final int MAX_PENDING = WriteBehindMap.MAX_PENDING;
+
+    private final WriteBehindMap<Entry, AnyColdEntry> map;
+
+    public WriteBehindEntryMapping(final Map<Entry, AnyColdEntry> target) {
+        this.map = new WriteBehindMap<>(target, "stein-cache-writer");
+    }
+
+    @Override
+    public AnyColdEntry get(final Entry entry) {
+        return map.get(entry);
+    }
+
+    /**
+     * @throws IllegalStateException if the mapping is closed or the writer has failed
+     */
+    @Override
+    public void put(final Entry entry, final AnyColdEntry result) {
+        map.put(entry, result);
+    }
+
+    @Override
+    public long size() {
+        return map.size();
+    }
+
+    @Override
+    public Iterator<Map.Entry<Entry, AnyColdEntry>> entries() {
+        return map.entrySet().iterator();
+    }
+
+    /**
+     * @throws IllegalStateException if the writer has failed
+     */
+    @Override
+    public void close() {
+        map.close();
+    }
+}
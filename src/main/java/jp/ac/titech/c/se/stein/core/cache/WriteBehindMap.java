@@ -0,0 +1,193 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.collect.Iterators;
+import jp.ac.titech.c.se.stein.core.Try;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A map that defers the insertions into a backing map to a single writer thread.
+ *
+ * <p>The backing store (MVStore) serializes writes and commits its write buffer on the writing
+ * thread, so concurrent workers putting into it directly stall on each other. Here, insertions
+ * are recorded in a concurrent map of pending writes and queued; the writer thread drains the
+ * queue into the backing map in batches. Lookups consult the pending writes first, so they see
+ * every insertion immediately. When the writer falls behind, insertions block once
+ * {@value #MAX_PENDING} writes are queued.</p>
+ *
+ * <p>If the writer fails, it stops and the failure is rethrown by the next {@link #put} and
+ * by {@link #close()}. An insertion either completes before closing starts, and is then
+ * written, or is rejected. Removals are not supported.</p>
+ */
+@Slf4j
+public class WriteBehindMap<K, V> extends AbstractMap<K, V> implements AutoCloseable {
+    static final int MAX_PENDING = 1 << 16;
+
+    private static final int BATCH_SIZE = 1024;
+
+    private final Map<K, V> target;
+
+    private final Map<K, V> pending = new ConcurrentHashMap<>();
+
+    private final BlockingQueue<K> queue = new LinkedBlockingQueue<>(MAX_PENDING);
+
+    private final Thread writer;
+
+    /**
+     * Held shared by insertions and exclusively by {@link #close()}, so that no insertion
+     * is enqueued after the writer has been told to finish.
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    private volatile boolean closed;
+
+    private volatile Throwable failure;
+
+    /**
+     * @param name the name of the writer thread
+     */
+    public WriteBehindMap(final Map<K, V> target, final String name) {
+        this.target = target;
+        this.writer = new Thread(this::drain, name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public V get(final Object key) {
+        final V result = pending.get(key);
+        return result != null ? result : target.get(key);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Records the insertion and queues it for the writer.
+     *
+     * @return always {@code null}; the previous value is not looked up
+     */
+    @Override
+    public V put(final K key, final V value) {
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Mapping already closed");
+            }
+            checkFailure();
+            pending.put(key, value);
+            // wait for room in the queue, but give up once the writer has failed
+            while (!Try.run(() -> queue.offer(key, 100, TimeUnit.MILLISECONDS))) {
+                checkFailure();
+            }
+            return null;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rethrows the failure of the writer, if any.
+     */
+    private void checkFailure() {
+        final Throwable e = failure;
+        if (e != null) {
+            throw new IllegalStateException("Cache writer failed", e);
+        }
+    }
+
+    /**
+     * Returns the number of mappings, counting a key twice while it is being written.
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, (long) target.size() + pending.size());
+    }
+
+    /**
+     * Iterates over a snapshot of the pending writes, and then over the backing map
+     * skipping the keys already visited.
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                final Map<K, V> snapshot = new HashMap<>(pending);
+                final Iterator<Map.Entry<K, V>> written = Iterators.filter(target.entrySet().iterator(), e -> !snapshot.containsKey(e.getKey()));
+                return Iterators.concat(snapshot.entrySet().iterator(), written);
+            }
+
+            @Override
+            public int size() {
+                return WriteBehindMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Writes the queued insertions to the backing map until closed.
+     */
+    private void drain() {
+        try {
+            drainQueue();
+        } catch (final RuntimeException | Error e) {
+            log.error("Cache writer failed", e);
+            failure = e;
+        }
+    }
+
+    private void drainQueue() {
+        final List<K> batch = new ArrayList<>(BATCH_SIZE);
+        while (!closed || !queue.isEmpty()) {
+            final K head = Try.run(() -> queue.poll(100, TimeUnit.MILLISECONDS));
+            if (head == null) {
+                continue;
+            }
+            batch.add(head);
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            for (final K key : batch) {
+                final V value = pending.get(key);
+                if (value != null) {
+                    target.put(key, value);
+                    // keep the pending value if it has been overwritten meanwhile
+                    pending.remove(key, value);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Waits until all the queued insertions are written to the backing map, and stops the writer.
+     *
+     * @throws IllegalStateException if the writer has failed
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        Try.run(() -> writer.join());
+        checkFailure();
+    }
+}
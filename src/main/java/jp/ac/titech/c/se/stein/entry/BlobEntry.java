@@ -82,6 +82,18 @@ public abstract sealed class BlobEntry extends HotEntry permits BlobEntry.Source
             return blob != null ? blob.length : source.getBlobSize(entry.id);
         }
 
+        /**
+         * Since the content is unchanged, the blob is copied in its stored representation
+         * if the target supports it, without reading its content.
+         */
+        @Override
+        public Entry fold(final RepositoryAccess target, final Context c) {
+            if (target.isCopyingRawFrom(source)) {
+                return Entry.of(getMode(), getName(), source.copyBlob(entry.id, target, c), getDirectory());
+            }
+            return super.fold(target, c);
+        }
+
         @Override
         public String toString() {
             return String.format("%s [hot(%s):%o]", getPath(), getId().name(), getMode());
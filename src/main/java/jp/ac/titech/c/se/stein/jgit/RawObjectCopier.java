@@ -0,0 +1,130 @@
+package jp.ac.titech.c.se.stein.jgit;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies unchanged objects from a source repository into a target repository in their
+ * stored representation.
+ *
+ * <p>Objects are collected during the run and written at {@link #flush()} into a pack by a
+ * {@link PackWriter} reading the source. Once {@value #MAX_PENDING} objects are pending,
+ * they are flushed right away, so a run writes a pack per batch and the pending set stays bounded. A packed source object is copied as
+ * is, either as the compressed whole object or as a delta whose base is also copied,
+ * without inflating, deflating, or hashing it again. The index is written from the known
+ * object IDs. Objects that the target already has (e.g., via alternates) are skipped.</p>
+ */
+public class RawObjectCopier {
+    private static final Logger log = LoggerFactory.getLogger(RawObjectCopier.class);
+
+    static final int MAX_PENDING = 1 << 19;
+
+    private final FileRepository source;
+
+    private final ObjectDirectory target;
+
+    /**
+     * The pending objects and their types.
+     */
+    private final Map<ObjectId, Integer> pending = new ConcurrentHashMap<>();
+
+    public RawObjectCopier(final FileRepository source, final FileRepository target) {
+        this.source = source;
+        this.target = target.getObjectDatabase();
+    }
+
+    /**
+     * Schedules copying the given object, flushing the pending objects if there are too many.
+     *
+     * @param type the object type, e.g., {@link org.eclipse.jgit.lib.Constants#OBJ_BLOB}
+     */
+    public void add(final ObjectId id, final int type) throws IOException {
+        pending.putIfAbsent(id.copy(), type);
+        if (pending.size() >= MAX_PENDING) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the pending objects into a new pack of the target.
+     *
+     * @return the number of the objects written
+     */
+    public synchronized long flush() throws IOException {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        final PackConfig config = new PackConfig(source);
+        // reuse the stored representations only, without searching new deltas
+        config.setDeltaCompress(false);
+        try (final ObjectReader reader = source.newObjectReader();
+             final ObjectWalk walk = new ObjectWalk(reader);
+             final PackWriter writer = new PackWriter(config, reader)) {
+            writer.setUseBitmaps(false);
+            writer.setReuseValidatingObjects(false);
+            writer.setDeltaBaseAsOffset(true);
+
+            final List<RevObject> objects = new ArrayList<>();
+            // removes the taken objects one by one, since others may be added concurrently
+            final Iterator<Map.Entry<ObjectId, Integer>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<ObjectId, Integer> e = it.next();
+                if (!target.has(e.getKey())) {
+                    objects.add(walk.lookupAny(e.getKey(), e.getValue()));
+                }
+                it.remove();
+            }
+            if (objects.isEmpty()) {
+                return 0;
+            }
+            writer.preparePack(objects.iterator());
+
+            final File dir = target.getPackDirectory();
+            Files.createDirectories(dir.toPath());
+            final File tmpPack = File.createTempFile("copy_", ".pack", dir);
+            final File tmpIndex = File.createTempFile("copy_", ".idx", dir);
+            try {
+                try (final OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpPack))) {
+                    writer.writePack(NullProgressMonitor.INSTANCE, NullProgressMonitor.INSTANCE, out);
+                }
+                try (final OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpIndex))) {
+                    writer.writeIndex(out);
+                }
+                final String name = "pack-" + writer.computeName().name();
+                final File pack = new File(dir, name + ".pack");
+                // the index is moved last, since it marks the pack as complete
+                Files.move(tmpPack.toPath(), pack.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                Files.move(tmpIndex.toPath(), new File(dir, name + ".idx").toPath(), StandardCopyOption.ATOMIC_MOVE);
+                target.openPack(pack);
+            } finally {
+                Files.deleteIfExists(tmpPack.toPath());
+                Files.deleteIfExists(tmpIndex.toPath());
+            }
+            final long count = writer.getObjectCount();
+            log.info("Copied {} unchanged objects in their stored representation", count);
+            return count;
+        }
+    }
+}
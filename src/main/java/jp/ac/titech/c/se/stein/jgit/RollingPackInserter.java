@@ -0,0 +1,77 @@
+package jp.ac.titech.c.se.stein.jgit;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackInserter;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.transport.PackParser;
+
+/**
+ * An inserter that streams new objects into pack files instead of loose objects,
+ * starting a new pack once the current one has received a given number of bytes.
+ *
+ * <p>Each pack is completed with its index on rollover and on {@link #flush()}, so the
+ * objects become visible to other readers at those points. The size is measured by the
+ * inflated size of the inserted objects, so a pack on disk is usually smaller than the
+ * limit. Objects are stored whole, without deltas.</p>
+ */
+public class RollingPackInserter extends ObjectInserter {
+    private final PackInserter delegate;
+
+    private final long limit;
+
+    private long written;
+
+    public RollingPackInserter(final ObjectDirectory db, final long limit) {
+        this.delegate = db.newPackInserter();
+        this.limit = limit;
+    }
+
+    @Override
+    public ObjectId insert(final int type, final byte[] data, final int off, final int len) throws IOException {
+        final ObjectId id = delegate.insert(type, data, off, len);
+        written(len);
+        return id;
+    }
+
+    @Override
+    public ObjectId insert(final int type, final long length, final InputStream in) throws IOException {
+        final ObjectId id = delegate.insert(type, length, in);
+        written(length);
+        return id;
+    }
+
+    private void written(final long length) throws IOException {
+        written += length;
+        if (written >= limit) {
+            // completes the pack; the next insertion begins a new one
+            delegate.flush();
+            written = 0;
+        }
+    }
+
+    @Override
+    public PackParser newPackParser(final InputStream in) {
+        return delegate.newPackParser(in);
+    }
+
+    @Override
+    public ObjectReader newReader() {
+        return delegate.newReader();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+        written = 0;
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,95 @@
+package jp.ac.titech.c.se.stein.rewriter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import jp.ac.titech.c.se.stein.core.Try;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A bounded executor dedicated to blob translation, sized independently of the tree workers.
+ *
+ * <p>Blob translators that wait for external processes or services spend most of their time
+ * blocked, so many more of them can be in flight than there are cores. Tree workers submit
+ * the translations of the blobs in a tree, and then fold the results in order.</p>
+ *
+ * <p>With virtual threads, each translation runs on its own virtual thread, and the number of
+ * concurrent translations is bounded by a semaphore instead of the pool size. Virtual threads
+ * require Java 21 or later; on older runtimes, platform threads are used instead.</p>
+ */
+@Slf4j
+public class BlobExecutor implements AutoCloseable {
+    private final ExecutorService executor;
+
+    /**
+     * Bounds the number of concurrent translations (virtual threads only).
+     */
+    private final Semaphore permits;
+
+    public BlobExecutor(final int nthreads, final boolean isVirtual) {
+        final ExecutorService virtual = isVirtual ? newVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            this.executor = virtual;
+            this.permits = new Semaphore(nthreads);
+        } else {
+            final AtomicInteger count = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(nthreads, r -> {
+                final Thread t = new Thread(r, "stein-blob-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            this.permits = null;
+        }
+        log.info("Blob translation with {} {} threads", nthreads, virtual != null ? "virtual" : "platform");
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task, or returns {@code null} if unsupported.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException e) {
+            log.warn("Virtual threads are not available on this runtime; using platform threads");
+            return null;
+        }
+    }
+
+    /**
+     * Runs a translation completing the given future. The translation is skipped if the future
+     * has already been completed or cancelled when it is about to start.
+     */
+    public <T> void run(final CompletableFuture<T> future, final Supplier<T> f) {
+        executor.execute(() -> {
+            if (permits != null) {
+                Try.run(() -> permits.acquire());
+            }
+            try {
+                if (!future.isDone()) {
+                    future.complete(f.get());
+                }
+            } catch (final RuntimeException | Error e) {
+                future.completeExceptionally(e);
+            } finally {
+                if (permits != null) {
+                    permits.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the submitted translations to finish. The wait is not bounded, since every
+     * translation is either running or skipped once its future is cancelled.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        Try.run(() -> executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS));
+    }
+}
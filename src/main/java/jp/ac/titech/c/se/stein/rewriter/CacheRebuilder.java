@@ -0,0 +1,113 @@
+package jp.ac.titech.c.se.stein.rewriter;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jp.ac.titech.c.se.stein.core.RepositoryAccess;
+import jp.ac.titech.c.se.stein.core.cache.CommitMapping;
+import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import jp.ac.titech.c.se.stein.jgit.RevWalk;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Reconstructs the entry mapping from the commits already rewritten into the target repository.
+ *
+ * <p>For each pair of a source commit and its rewritten commit recorded in the notes, the root
+ * trees are walked in lockstep. Where the children of a source tree and its counterpart have
+ * the same names and types, each source child is mapped to the target child of the same name.
+ * Trees whose children do not line up, e.g., because a translator split or renamed files, are
+ * mapped as a whole but not descended into.</p>
+ *
+ * <p>This assumes that the rewriting is deterministic and that the rewritten entries keep the
+ * names of their sources, as with identity-like and one-to-one translators.</p>
+ */
+@Slf4j
+class CacheRebuilder {
+    private final RepositoryAccess source;
+
+    private final RepositoryAccess target;
+
+    private final Map<Entry, AnyColdEntry> entryMapping;
+
+    private final Map<ObjectId, ObjectId> rootTreeMapping;
+
+    private final boolean isPathSensitive;
+
+    /**
+     * Source trees already visited.
+     */
+    private final Set<Entry> visited = new HashSet<>();
+
+    private long seeded = 0;
+
+    CacheRebuilder(final RepositoryAccess source, final RepositoryAccess target, final Map<Entry, AnyColdEntry> entryMapping,
+                   final Map<ObjectId, ObjectId> rootTreeMapping, final boolean isPathSensitive) {
+        this.source = source;
+        this.target = target;
+        this.entryMapping = entryMapping;
+        this.rootTreeMapping = rootTreeMapping;
+        this.isPathSensitive = isPathSensitive;
+    }
+
+    /**
+     * Seeds the mappings from all the commit pairs of the given commit mapping. The pairs are
+     * read from the notes one by one rather than loaded into the commit mapping.
+     */
+    void rebuild(final CommitMapping commitMapping) {
+        final int[] commits = { 0 };
+        try (final RevWalk sourceWalk = source.walk(); final RevWalk targetWalk = target.walk()) {
+            commitMapping.forEachMapping((sourceId, targetId) -> {
+                final ObjectId sourceTree, targetTree;
+                try {
+                    sourceTree = sourceWalk.parseCommit(sourceId).getTree().getId();
+                    targetTree = targetWalk.parseCommit(targetId).getTree().getId();
+                } catch (final IOException ex) {
+                    log.debug("Skip commit pair {} -> {}: {}", sourceId.name(), targetId.name(), ex.getMessage());
+                    return;
+                } finally {
+                    // the walks are only used to read the root trees
+                    sourceWalk.dispose();
+                    targetWalk.dispose();
+                }
+                rootTreeMapping.putIfAbsent(sourceTree, targetTree);
+                final Entry root = Entry.of(FileMode.TREE.getBits(), "", sourceTree, isPathSensitive ? "" : null);
+                seed(root, Entry.of(FileMode.TREE.getBits(), "", targetTree, root.directory), "");
+                commits[0]++;
+            });
+        }
+        log.info("Rebuilt entry mapping from {} commits: {} entries seeded", commits[0], seeded);
+    }
+
+    private void seed(final Entry sourceEntry, final Entry targetEntry, final String path) {
+        if (entryMapping.get(sourceEntry) == null) {
+            entryMapping.put(sourceEntry, targetEntry);
+            seeded++;
+        }
+        if (!sourceEntry.isTree() || !visited.add(sourceEntry)) {
+            return;
+        }
+        final String dir = isPathSensitive ? path : null;
+        final List<Entry> sourceChildren = source.readTree(sourceEntry.id, dir);
+        final List<Entry> targetChildren = target.readTree(targetEntry.id, dir);
+        if (sourceChildren.size() != targetChildren.size()) {
+            return;
+        }
+        for (int i = 0; i < sourceChildren.size(); i++) {
+            // both are in the canonical order, which depends only on the names and types
+            final Entry s = sourceChildren.get(i), t = targetChildren.get(i);
+            if (!s.name.equals(t.name) || s.getType() != t.getType()) {
+                return;
+            }
+        }
+        for (int i = 0; i < sourceChildren.size(); i++) {
+            final Entry s = sourceChildren.get(i), t = targetChildren.get(i);
+            seed(s, t, path + "/" + s.name);
+        }
+    }
+}
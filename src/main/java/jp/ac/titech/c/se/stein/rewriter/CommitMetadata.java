@@ -0,0 +1,38 @@
+package jp.ac.titech.c.se.stein.rewriter;
+
+import java.nio.charset.Charset;
+
+import org.eclipse.jgit.lib.GpgSignature;
+import org.eclipse.jgit.lib.PersonIdent;
+
+/**
+ * The rewritten parts of a commit that do not depend on its parents.
+ *
+ * <p>These can be computed in any order, e.g., on the worker pool together with the root tree,
+ * leaving only the parents and the hashing to the commit writing pass.</p>
+ */
+final class CommitMetadata {
+    final PersonIdent author;
+
+    final PersonIdent committer;
+
+    final String message;
+
+    /**
+     * The rewritten encoding, or {@code null} unless extra attributes are rewritten.
+     */
+    final Charset encoding;
+
+    /**
+     * The rewritten signature, or {@code null} if absent or extra attributes are not rewritten.
+     */
+    final GpgSignature signature;
+
+    CommitMetadata(final PersonIdent author, final PersonIdent committer, final String message, final Charset encoding, final GpgSignature signature) {
+        this.author = author;
+        this.committer = committer;
+        this.message = message;
+        this.encoding = encoding;
+        this.signature = signature;
+    }
+}
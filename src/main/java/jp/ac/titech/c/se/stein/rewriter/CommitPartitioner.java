@@ -0,0 +1,52 @@
+package jp.ac.titech.c.se.stein.rewriter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jp.ac.titech.c.se.stein.core.CommitTable;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Partitions commits into segments of consecutive commits along first-parent chains.
+ *
+ * <p>Consecutive commits on a chain share most of their tree entries. Processing a whole
+ * segment on one thread keeps those entries hot in the entry mapping of that thread's
+ * working set, and avoids several workers resolving the same subtrees at the same time.</p>
+ */
+public class CommitPartitioner {
+    private CommitPartitioner() {}
+
+    /**
+     * Partitions the given commits (in topological order) into first-parent segments.
+     * Each segment keeps the topological order, and is at most {@code maxLength} long.
+     */
+    public static List<List<RevCommit>> partition(final CommitTable commits, final int maxLength) {
+        final List<List<RevCommit>> result = new ArrayList<>();
+        // the open segment whose last commit is at the index
+        final List<List<RevCommit>> tails = new ArrayList<>(Collections.nCopies(commits.size(), null));
+        for (int i = 0; i < commits.size(); i++) {
+            List<RevCommit> segment = null;
+            final int parent = commits.getFirstParent(i);
+            if (parent >= 0) {
+                // only the first child continues the segment of its parent
+                segment = tails.set(parent, null);
+            }
+            if (segment == null || segment.size() >= maxLength) {
+                segment = new ArrayList<>();
+                result.add(segment);
+            }
+            segment.add(commits.get(i));
+            tails.set(i, segment);
+        }
+        return result;
+    }
+
+    /**
+     * Determines the maximum segment length so that each thread gets several segments to balance the load.
+     */
+    public static int maxLength(final int count, final int nthreads) {
+        final int segmentsPerThread = 8;
+        return Math.max(1, (count + nthreads * segmentsPerThread - 1) / (nthreads * segmentsPerThread));
+    }
+}
@@ -0,0 +1,151 @@
+package jp.ac.titech.c.se.stein.rewriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import jp.ac.titech.c.se.stein.core.CommitTable;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Processes commits concurrently in dependency order: a commit is processed as soon as
+ * all of its parents in the given table have been processed. Parents outside the table are
+ * regarded as already processed.
+ *
+ * <p>Commits on independent branches are thus processed in parallel, while every commit
+ * still sees the results of all of its parents.</p>
+ *
+ * <p>If processing a commit fails, no further commits are started, and {@link #run} waits
+ * for the running ones to stop before rethrowing the failure.</p>
+ */
+@Slf4j
+public class CommitScheduler {
+    private final CommitTable commits;
+
+    /**
+     * Number of unprocessed parents for each commit.
+     */
+    private final AtomicIntegerArray waiting;
+
+    /**
+     * Indices of the children for each commit.
+     */
+    private final int[][] children;
+
+    private final AtomicInteger remaining;
+
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    private ForkJoinPool pool;
+
+    private Consumer<RevCommit> f;
+
+    public CommitScheduler(final CommitTable commits) {
+        this.commits = commits;
+        final int n = commits.size();
+        final int[] counts = new int[n];
+        final List<List<Integer>> childLists = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            childLists.add(new ArrayList<>(1));
+        }
+        for (int i = 0; i < n; i++) {
+            for (final int p : commits.getParents(i)) {
+                if (p >= 0) {
+                    counts[i]++;
+                    childLists.get(p).add(i);
+                }
+            }
+        }
+        this.waiting = new AtomicIntegerArray(counts);
+        this.children = childLists.stream().map(l -> l.stream().mapToInt(Integer::intValue).toArray()).toArray(int[][]::new);
+        this.remaining = new AtomicInteger(n);
+    }
+
+    /**
+     * Processes all the commits with the given number of threads and waits for the completion.
+     * A {@link RuntimeException} or an {@link Error} raised by {@code f} is rethrown as is.
+     */
+    public void run(final int nthreads, final Consumer<RevCommit> f) {
+        if (commits.size() == 0) {
+            return;
+        }
+        this.f = f;
+        // collects the roots first, since the workers decrease the counts while they are submitted
+        final int[] roots = IntStream.range(0, commits.size()).filter(i -> waiting.get(i) == 0).toArray();
+        this.pool = new ForkJoinPool(nthreads);
+        try {
+            for (final int i : roots) {
+                submit(i);
+            }
+            done.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            if (e.getCause() instanceof Error err) {
+                throw err;
+            }
+            throw e;
+        } finally {
+            log.debug("Pool stats: steal={}", pool.getStealCount());
+            // on failure, interrupts the running commits; either way, waits for the workers to stop
+            if (done.isCompletedExceptionally()) {
+                pool.shutdownNow();
+            } else {
+                pool.shutdown();
+            }
+            awaitTermination();
+        }
+    }
+
+    private void awaitTermination() {
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(final int index) {
+        if (done.isDone()) {
+            return;
+        }
+        try {
+            pool.execute(() -> process(index));
+        } catch (final RejectedExecutionException e) {
+            // the pool has been shut down after a failure
+            if (!done.isCompletedExceptionally()) {
+                throw e;
+            }
+        }
+    }
+
+    private void process(final int index) {
+        if (done.isDone()) {
+            return;
+        }
+        try {
+            f.accept(commits.get(index));
+        } catch (final Throwable e) {
+            done.completeExceptionally(e);
+            return;
+        }
+        for (final int child : children[index]) {
+            if (waiting.decrementAndGet(child) == 0) {
+                submit(child);
+            }
+        }
+        if (remaining.decrementAndGet() == 0) {
+            done.complete(null);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package jp.ac.titech.c.se.stein.rewriter;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import jp.ac.titech.c.se.stein.core.Try;
+import jp.ac.titech.c.se.stein.util.HashUtils;
+import picocli.CommandLine.Model.ArgSpec;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Model.OptionSpec;
+import picocli.CommandLine.Model.PositionalParamSpec;
+
+/**
+ * Computes fingerprints of rewriter commands, identifying the configurations whose results can
+ * be shared.
+ *
+ * <p>A fingerprint covers the class and the {@linkplain RewriterCommand#getVersion() version}
+ * of a command, the values of its picocli options and parameters as given by the picocli model
+ * (including those of mixins and argument groups), and, recursively, the commands it is composed of.</p>
+ *
+ * <p>An option declared on a setter method is read from the getter or the field of the same
+ * property, since picocli does not keep its value; a setter without either (e.g., one that only
+ * sets other options) is skipped. Option values must have a value-based string form, so that
+ * the fingerprint is stable across runs.</p>
+ */
+public final class Fingerprint {
+    private Fingerprint() {}
+
+    /**
+     * Returns the fingerprint of the given command as a short hex string.
+     */
+    public static String of(final RewriterCommand command) {
+        return HashUtils.digest(describe(command), 16);
+    }
+
+    /**
+     * Returns the canonical description of the given command that the fingerprint is computed from.
+     */
+    public static String describe(final RewriterCommand command) {
+        final StringBuilder sb = new StringBuilder();
+        describeCommand(command, sb, new IdentityHashMap<>());
+        return sb.toString();
+    }
+
+    private static void describeCommand(final RewriterCommand command, final StringBuilder sb, final Map<Object, Boolean> visited) {
+        sb.append(nameOf(command.getClass())).append('@').append(command.getVersion());
+        if (visited.put(command, true) != null) {
+            return;
+        }
+        sb.append(describeOptions(command));
+        describeComponents(command, sb, visited);
+    }
+
+    /**
+     * Describes the options and the parameters of the given command, sorted by name.
+     */
+    private static Map<String, String> describeOptions(final Object command) {
+        final CommandSpec spec = CommandSpec.forAnnotatedObjectLenient(command);
+        final Map<String, String> result = new TreeMap<>();
+        for (final OptionSpec option : spec.options()) {
+            valueOf(option).ifPresent(v -> result.put(option.longestName(), v));
+        }
+        for (final PositionalParamSpec param : spec.positionalParameters()) {
+            valueOf(param).ifPresent(v -> result.put(param.paramLabel() + '#' + param.index(), v));
+        }
+        return result;
+    }
+
+    private static Optional<String> valueOf(final ArgSpec arg) {
+        if (arg.userObject() instanceof Method setter) {
+            final Object owner = Try.run(() -> arg.scope().get());
+            return owner == null ? Optional.of("null") : readProperty(owner, setter).map(v -> toString(arg, v));
+        }
+        return Optional.of(toString(arg, arg.getValue()));
+    }
+
+    /**
+     * Reads the property set by the given setter through its getter or its field.
+     *
+     * @return the value, or empty if the property is not readable
+     */
+    private static Optional<Object> readProperty(final Object owner, final Method setter) {
+        final String name = setter.getName().startsWith("set") ? setter.getName().substring(3) : setter.getName();
+        final String field = Character.toLowerCase(name.charAt(0)) + name.substring(1);
+        for (Class<?> k = owner.getClass(); k != null && k != Object.class; k = k.getSuperclass()) {
+            for (final String getter : List.of("get" + name, "is" + name)) {
+                final Optional<Method> m = Arrays.stream(k.getDeclaredMethods())
+                        .filter(x -> x.getName().equals(getter) && x.getParameterCount() == 0)
+                        .findFirst();
+                if (m.isPresent()) {
+                    return Optional.ofNullable(Try.run(() -> {
+                        m.get().setAccessible(true);
+                        return m.get().invoke(owner);
+                    }));
+                }
+            }
+            for (final Field f : k.getDeclaredFields()) {
+                if (f.getName().equals(field) && !Modifier.isStatic(f.getModifiers())) {
+                    return Optional.ofNullable(Try.run(() -> {
+                        f.setAccessible(true);
+                        return f.get(owner);
+                    }));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Describes the commands the given command is composed of, e.g., the translators of a
+     * composite or of a rewriter.
+     */
+    private static void describeComponents(final Object object, final StringBuilder sb, final Map<Object, Boolean> visited) {
+        sb.append('{');
+        for (final Field field : fieldsOf(object.getClass())) {
+            if (!RewriterCommand.class.isAssignableFrom(field.getType()) && !RewriterCommand[].class.isAssignableFrom(field.getType())) {
+                continue;
+            }
+            final Object value = Try.run(() -> {
+                field.setAccessible(true);
+                return field.get(object);
+            });
+            if (value instanceof RewriterCommand command) {
+                sb.append(field.getName()).append('=');
+                describeCommand(command, sb, visited);
+                sb.append(';');
+            } else if (value instanceof RewriterCommand[] commands) {
+                sb.append(field.getName()).append("=[");
+                for (final RewriterCommand command : commands) {
+                    describeCommand(command, sb, visited);
+                    sb.append(',');
+                }
+                sb.append("];");
+            }
+        }
+        sb.append('}');
+    }
+
+    /**
+     * Returns the instance fields of the given class and its superclasses, in a stable order.
+     */
+    private static List<Field> fieldsOf(final Class<?> c) {
+        final List<Field> result = new ArrayList<>();
+        for (Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass()) {
+            final Field[] fields = k.getDeclaredFields();
+            Arrays.sort(fields, (a, b) -> a.getName().compareTo(b.getName()));
+            for (final Field f : fields) {
+                if (!Modifier.isStatic(f.getModifiers())) {
+                    result.add(f);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the class name, omitting the unstable suffix of lambda classes.
+     */
+    private static String nameOf(final Class<?> c) {
+        final String name = c.getName();
+        final int index = name.indexOf("$$Lambda");
+        return index >= 0 ? name.substring(0, index + 8) : name;
+    }
+
+    /**
+     * Returns the value-based string form of an option value.
+     *
+     * @throws IllegalArgumentException if the value has no value-based string form
+     */
+    private static String toString(final ArgSpec arg, final Object value) {
+        if (value == null || value instanceof CharSequence || value instanceof Number || value instanceof Boolean
+                || value instanceof Character || value instanceof Enum || value instanceof File || value instanceof Path
+                || value instanceof URL || value instanceof URI) {
+            return String.valueOf(value);
+        }
+        if (value instanceof Class<?> c) {
+            return c.getName();
+        }
+        if (value instanceof Charset cs) {
+            return cs.name();
+        }
+        if (value instanceof Pattern p) {
+            return p.pattern() + '/' + p.flags();
+        }
+        if (value.getClass().isArray()) {
+            final List<String> items = new ArrayList<>();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                items.add(toString(arg, Array.get(value, i)));
+            }
+            return items.toString();
+        }
+        if (value instanceof Map<?, ?> map) {
+            final Map<String, String> sorted = new TreeMap<>();
+            map.forEach((k, v) -> sorted.put(toString(arg, k), toString(arg, v)));
+            return sorted.toString();
+        }
+        if (value instanceof Iterable<?> items) {
+            final List<String> values = StreamSupport.stream(items.spliterator(), false).map(v -> toString(arg, v)).collect(Collectors.toList());
+            // the order of a set is not part of its value
+            if (value instanceof Set) {
+                values.sort(null);
+            }
+            return values.toString();
+        }
+        throw new IllegalArgumentException("Cannot fingerprint the value of option " + arg + ": " + value.getClass().getName());
+    }
+}
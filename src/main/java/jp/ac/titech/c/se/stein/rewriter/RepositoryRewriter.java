@@ -6,10 +6,11 @@ import java.nio.charset.Charset;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import jp.ac.titech.c.se.stein.core.*;
 import jp.ac.titech.c.se.stein.core.cache.*;
@@ -21,6 +22,7 @@ import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.GpgSignature;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
@@ -46,7 +48,8 @@ public class RepositoryRewriter implements RewriterCommand {
 
     /**
      * Entry-to-entries mapping. When {@code --cache} is disabled, uses an in-memory
-     * Guava Cache with LRU eviction. When enabled, uses a persistent MVStore map.
+     * Guava Cache with LRU eviction, or with {@code --off-heap}, an off-heap table.
+     * When enabled, puts the in-memory mapping in front of a persistent MVStore map.
      */
     protected Map<Entry, AnyColdEntry> entryMapping;
 
@@ -54,9 +57,49 @@ public class RepositoryRewriter implements RewriterCommand {
     private final AtomicLong blobCacheMisses = new AtomicLong();
     private final AtomicLong treeCacheHits = new AtomicLong();
     private final AtomicLong treeCacheMisses = new AtomicLong();
+    private final AtomicLong duplicatesAvoided = new AtomicLong();
+    private final AtomicLong diffReuses = new AtomicLong();
+
+    /**
+     * Entries being rewritten right now, so that concurrent requests for the same entry
+     * wait for the first computation instead of repeating it.
+     */
+    private final Map<Entry, InflightEntry> inflightEntries = new ConcurrentHashMap<>();
+
+    /**
+     * The result of an entry being rewritten, and the thread rewriting it.
+     */
+    private static class InflightEntry extends CompletableFuture<AnyColdEntry> {
+        final Thread owner = Thread.currentThread();
+    }
+
+    /**
+     * Blob translations submitted to the blob executor and not yet taken by {@link #rewriteEntry}.
+     */
+    private final Map<Entry, CompletableFuture<AnyHotEntry>> pendingBlobs = new ConcurrentHashMap<>();
 
     private static final int BYTES_PER_ENTRY = 300;
 
+    /**
+     * Number of root trees per thread that may be in flight in the pipelined mode.
+     */
+    private static final int PIPELINE_WINDOW_PER_THREAD = 16;
+
+    /**
+     * Trees deeper than this are rewritten inline rather than forking their subtrees.
+     */
+    private static final int FORK_MAX_DEPTH = 4;
+
+    /**
+     * Minimum number of subtrees for a tree to fork them across workers.
+     */
+    private static final int FORK_MIN_SUBTREES = 2;
+
+    /**
+     * Number of recent root tree snapshots kept for the diff-driven mode.
+     */
+    private static final int SNAPSHOT_CAPACITY = 64;
+
     private static Map<Entry, AnyColdEntry> createEntryMapping(long memoryBudget) {
         final long maxWeight = Math.max(1000, memoryBudget / BYTES_PER_ENTRY);
         return CacheBuilder.newBuilder()
@@ -69,7 +112,39 @@ public class RepositoryRewriter implements RewriterCommand {
     /**
      * Root tree-to-tree mapping.
      */
-    protected Map<ObjectId, ObjectId> rootTreeMapping = new ConcurrentHashMap<>();
+    protected Map<ObjectId, ObjectId> rootTreeMapping = new ConcurrentObjectIdMap();
+
+    /**
+     * Snapshots of recently rewritten root trees, keyed by source tree ID (diff-driven mode only).
+     */
+    private final Cache<ObjectId, TreeSnapshot> rootTreeSnapshots = CacheBuilder.newBuilder()
+            .maximumSize(SNAPSHOT_CAPACITY)
+            .build();
+
+    /**
+     * Trees about to be rewritten against a base snapshot, taken by {@link #rewriteEntry}
+     * (diff-driven mode only).
+     */
+    private final Map<Entry, SnapshotRequest> snapshotRequests = new ConcurrentHashMap<>();
+
+    /**
+     * A request to rewrite a tree against a base snapshot, and the resulting snapshot.
+     */
+    private static class SnapshotRequest {
+        final TreeSnapshot base;
+
+        TreeSnapshot expanded;
+
+        SnapshotRequest(final TreeSnapshot base) {
+            this.base = base;
+        }
+    }
+
+    /**
+     * Commit metadata rewritten ahead of the commit writing pass, keyed by source commit ID
+     * ({@code --parallel-metadata} only). Each entry is removed once the commit is written.
+     */
+    private final Map<ObjectId, CommitMetadata> metadataMapping = new ConcurrentHashMap<>();
 
     /**
      * Commit-to-commit mapping.
@@ -79,7 +154,7 @@ public class RepositoryRewriter implements RewriterCommand {
     /**
      * Tag-to-tag mapping.
      */
-    protected final Map<ObjectId, ObjectId> tagMapping = new HashMap<>();
+    protected Map<ObjectId, ObjectId> tagMapping = new ObjectIdMap();
 
     /**
      * Ref-to-ref mapping.
@@ -115,9 +190,9 @@ public class RepositoryRewriter implements RewriterCommand {
     private NoteObjectIdMap origNotes;
 
     /**
-     * Source's orig notes (for chain forwarding). Cached at initialization.
+     * Source's orig notes (for chain forwarding), preloaded into an index at initialization.
      */
-    private NoteObjectIdMap sourceOrigNotes;
+    private Map<ObjectId, ObjectId> sourceOrigNotes;
 
     protected boolean isOverwriting = false;
 
@@ -128,6 +203,36 @@ public class RepositoryRewriter implements RewriterCommand {
 
     protected PersistentEntryCache entryCache;
 
+    /**
+     * The in-memory tier in front of {@link #entryCache} ({@code --cache} only).
+     */
+    private TieredEntryMapping tieredMapping;
+
+    /**
+     * The translation results shared with other repositories ({@code --shared-cache} only).
+     */
+    private SharedTranslationCache sharedCache;
+
+    /**
+     * Object inserters owned by worker threads, keyed by thread ID.
+     */
+    private final Map<Long, ObjectInserter> workerInserters = new ConcurrentHashMap<>();
+
+    /**
+     * The root tree pipeline running ahead of the commit writing pass (pipelined mode only).
+     */
+    private RootTreePipeline pipeline;
+
+    /**
+     * The pool of the parallel tree rewriting pass, on whose workers subtrees may be forked.
+     */
+    private volatile ForkJoinPool treePool;
+
+    /**
+     * The executor dedicated to blob translation ({@code --blob-jobs} only).
+     */
+    private BlobExecutor blobExecutor;
+
     public void initialize(final Repository sourceRepo, final Repository targetRepo) {
         source = new RepositoryAccess(sourceRepo);
         target = new RepositoryAccess(targetRepo);
@@ -136,12 +241,18 @@ public class RepositoryRewriter implements RewriterCommand {
             source.setDryRunning(true);
             target.setDryRunning(true);
         }
+        if (config.packSizeLimit > 0) {
+            target.setPackSizeLimit(config.packSizeLimit);
+        }
+        if (!isOverwriting) {
+            target.setRawCopySource(source);
+        }
         if (config.isAddingNotes && !isOverwriting) {
             isChained = source.getRef(R_NOTES_ORIG) != null;
             prevNotes = new NoteObjectIdMap(target.readNotes(R_NOTES_PREV), target);
             if (isChained) {
                 origNotes = new NoteObjectIdMap(target.readNotes(R_NOTES_ORIG), target);
-                sourceOrigNotes = new NoteObjectIdMap(source.readNotes(R_NOTES_ORIG), source);
+                sourceOrigNotes = source.getNoteIndex(R_NOTES_ORIG);
             } else {
                 origNotes = prevNotes;
             }
@@ -149,25 +260,65 @@ public class RepositoryRewriter implements RewriterCommand {
         }
         final long budget = config.entryMappingMemory >= 0 ? config.entryMappingMemory : Runtime.getRuntime().maxMemory() / 4;
         if (config.isCachingEnabled) {
-            entryCache = new PersistentEntryCache(targetRepo, budget);
-            entryMapping = entryCache.getEntryMapping();
+            // the budget is shared by the in-memory tier and the MVStore buffers
+            entryCache = new PersistentEntryCache(targetRepo, budget / 2, Fingerprint.of(this), Fingerprint.describe(this));
+            if (target.isCopyingRawFrom(source)) {
+                // the cached results may refer to the deferred copies until they are flushed
+                entryCache.markUnflushed();
+            }
+            tieredMapping = new TieredEntryMapping(createMemoryMapping(budget / 2), entryCache.getEntryMapping());
+            entryMapping = tieredMapping.asMap();
+            // restore the other mappings of the previous runs
+            rootTreeMapping = entryCache.getRootTreeMapping();
+            tagMapping = entryCache.getTagMapping();
+            refEntryMapping = entryCache.getRefEntryMapping();
         } else {
-            entryMapping = createEntryMapping(budget);
+            entryMapping = createMemoryMapping(budget);
+        }
+        if (config.sharedCacheDirectory != null) {
+            sharedCache = Try.io(() -> new SharedTranslationCache(config.sharedCacheDirectory.toPath(), Fingerprint.of(this)));
         }
     }
 
+    /**
+     * Creates an in-memory entry mapping within the given budget.
+     */
+    private Map<Entry, AnyColdEntry> createMemoryMapping(final long budget) {
+        return config.isUsingOffHeapMapping ? new OffHeapEntryMapping(budget).asMap() : createEntryMapping(budget);
+    }
+
     public void rewrite(final Context c) {
         final Context uc = c.with(Key.rewriter, this);
         setUp(uc);
-        try (final RevWalk walk = prepareRevisionWalk(uc)) {
-            if (config.nthreads >= 2) {
-                rewriteRootTrees(walk, uc);
-                Try.io(walk::memoReset);
+        if (config.isRebuildingCache) {
+            if (config.isAddingNotes && !isOverwriting) {
+                new CacheRebuilder(source, target, entryMapping, rootTreeMapping, isPathSensitive).rebuild(commitMapping);
+            } else {
+                log.warn("Cannot rebuild the entry mapping without the notes of the previous runs");
+            }
+        }
+        if (config.blobThreads > 0) {
+            blobExecutor = new BlobExecutor(config.blobThreads, config.isUsingVirtualThreads);
+        }
+        try (final CommitTable commits = CommitTable.of(prepareRevisionWalk(uc))) {
+            log.debug("Collected {} commits to rewrite", commits.size());
+            try {
+                rewriteCommits(commits, uc);
+            } finally {
+                stopPipeline();
+                closeWorkerInserters();
+                // write the unchanged objects before any ref points to them
+                target.flushRawCopies();
+                if (entryCache != null) {
+                    entryCache.markFlushed();
+                }
             }
-            rewriteCommits(walk, uc);
             updateRefs(uc);
             if (config.isAddingNotes) {
                 prevNotes.write(R_NOTES_PREV, uc);
+                if (!config.isDryRunning) {
+                    commitMapping.saveIndex(target.getRef(R_NOTES_PREV).getObjectId());
+                }
                 if (isChained) {
                     origNotes.write(R_NOTES_ORIG, uc);
                 } else {
@@ -189,8 +340,21 @@ public class RepositoryRewriter implements RewriterCommand {
                         blobHit, blobTotal, String.format("%.1f", blobTotal > 0 ? blobHit * 100.0 / blobTotal : 0),
                         treeHit, treeTotal, String.format("%.1f", treeTotal > 0 ? treeHit * 100.0 / treeTotal : 0),
                         hits, total, String.format("%.1f", hits * 100.0 / total));
+                log.info("Entry mapping duplicate work avoided: {}, reused from parent trees: {}", duplicatesAvoided.get(), diffReuses.get());
                 log.info("Entry mapping size: {}, root tree mapping size: {}", entryMapping.size(), rootTreeMapping.size());
             }
+            if (blobExecutor != null) {
+                blobExecutor.close();
+                blobExecutor = null;
+            }
+            if (tieredMapping != null) {
+                tieredMapping.logStats();
+            }
+            if (sharedCache != null) {
+                sharedCache.logStats();
+                Try.io(() -> sharedCache.close());
+                sharedCache = null;
+            }
             if (entryCache != null) {
                 entryCache.close();
             }
@@ -202,55 +366,145 @@ public class RepositoryRewriter implements RewriterCommand {
 
     /**
      * Rewrites all commits.
+     *
+     * <p>Subclasses overriding this should call {@link #prepareRootTrees} with the commits
+     * in the order they will be written, so that {@code -j} takes effect.</p>
      */
-    protected void rewriteCommits(final RevWalk walk, final Context c) {
+    protected void rewriteCommits(final CommitTable commits, final Context c) {
+        prepareRootTrees(commits, c);
+        if (config.nthreads >= 2 && config.isWritingCommitsInParallel) {
+            rewriteCommitsInParallel(commits, c);
+            return;
+        }
         target.openInserter(ins -> {
             final Context uc = c.with(Key.inserter, ins);
-            try (walk) {
-                for (final RevCommit commit : walk) {
-                    rewriteCommit(commit, uc);
-                    commit.disposeBody();
-                }
+            for (final RevCommit commit : commits) {
+                rewriteCommit(commit, uc);
+                commit.disposeBody();
             }
         });
     }
 
     /**
-     * Rewrites all root trees.
+     * Rewrites commits concurrently, writing each commit as soon as all of its parents have been
+     * written. The resulting object IDs are the same as those of the sequential pass.
      */
-    protected void rewriteRootTrees(final RevWalk walk, final Context c) {
-        final Map<Long, Context> cxts = new ConcurrentHashMap<>();
+    protected void rewriteCommitsInParallel(final CommitTable commits, final Context c) {
+        log.info("Parallel commit writing: {} commits with {} threads", commits.size(), config.nthreads);
+        new CommitScheduler(commits).run(config.nthreads, commit -> {
+            rewriteCommit(commit, withWorkerInserter(c));
+            commit.disposeBody();
+        });
+    }
 
-        // Count commits without closing the walk
-        long count = 0;
-        for (final RevCommit ignored : walk) {
-            count++;
+    /**
+     * Rewrites the root trees of the given commits with the worker pool ahead of writing the commits,
+     * either all at once or in the pipelined mode. Does nothing unless multiple threads are configured.
+     *
+     * <p>The commits can be in any order in which parents precede their children, e.g., a reordered
+     * or filtered subset of the commit table; the commits are expected to be written in the same order.</p>
+     */
+    protected void prepareRootTrees(final CommitTable commits, final Context c) {
+        if (config.nthreads < 2) {
+            return;
         }
-        Try.io(walk::memoReset);
-        log.info("Parallel rewriting: {} commits with {} threads", count, config.nthreads);
+        if (config.isPipelining) {
+            startPipeline(commits, c);
+        } else {
+            rewriteRootTrees(commits, c);
+        }
+    }
+
+    /**
+     * Rewrites all root trees.
+     *
+     * <p>Commits are partitioned into segments along first-parent chains, and each segment is
+     * processed by a single worker so that consecutive commits stay on one thread. Idle workers
+     * steal whole segments.</p>
+     */
+    protected void rewriteRootTrees(final CommitTable commits, final Context c) {
+        final List<List<RevCommit>> segments = CommitPartitioner.partition(commits, CommitPartitioner.maxLength(commits.size(), config.nthreads));
+        log.info("Parallel rewriting: {} commits in {} segments with {} threads", commits.size(), segments.size(), config.nthreads);
 
         final ForkJoinPool pool = new ForkJoinPool(config.nthreads);
+        treePool = pool;
         try {
-            final int characteristics = Spliterator.DISTINCT | Spliterator.IMMUTABLE | Spliterator.NONNULL | Spliterator.SIZED;
-            final Spliterator<RevCommit> split = Spliterators.spliterator(walk.iterator(), count, characteristics);
-            pool.submit(() -> {
-                final Stream<RevCommit> stream = StreamSupport.stream(split, true);
-                stream.forEach(commit -> {
-                    final long id = Thread.currentThread().getId();
-                    final Context uc = cxts.computeIfAbsent(id, k -> c.with(Key.inserter, target.getInserter()));
-                    final Context uuc = uc.with(Key.rev, commit, Key.commit, commit);
-                    rewriteRootTree(commit.getTree().getId(), uuc);
-                });
-            }).join();
+            final List<ForkJoinTask<?>> tasks = segments.stream()
+                    .map(segment -> ForkJoinTask.adapt(() -> {
+                        for (final RevCommit commit : segment) {
+                            precomputeCommit(commit, c);
+                        }
+                    }))
+                    .collect(Collectors.toList());
+            pool.submit(() -> ForkJoinTask.invokeAll(tasks)).join();
         } finally {
-            log.debug("Pool stats: steal={}, threads={}", pool.getStealCount(), cxts.size());
+            log.debug("Pool stats: steal={}, threads={}", pool.getStealCount(), workerInserters.size());
             pool.shutdown();
+            treePool = null;
+        }
+        closeWorkerInserters();
+    }
+
+    /**
+     * Starts rewriting root trees in the background so that {@link #rewriteCommits}
+     * can consume each root tree as soon as it is ready.
+     */
+    protected void startPipeline(final CommitTable commits, final Context c) {
+        log.info("Pipelined rewriting with {} threads", config.nthreads);
+        pipeline = new RootTreePipeline(config.nthreads, config.nthreads * PIPELINE_WINDOW_PER_THREAD, rootTreeMapping, commit -> precomputeCommit(commit, c));
+        treePool = pipeline.getPool();
+        pipeline.start(commits);
+    }
+
+    /**
+     * Rewrites the parts of a commit that do not depend on its parents on a worker thread:
+     * its root tree and, with {@code --parallel-metadata}, its metadata.
+     *
+     * <p>The body of the commit is loaded for the translators. In the pipelined mode it is left
+     * to the commit writing pass, which may be writing the commit already; otherwise it is
+     * disposed here and loaded again when the commit is written.</p>
+     */
+    private ObjectId precomputeCommit(final RevCommit commit, final Context c) {
+        source.parseBody(commit);
+        final Context uc = withWorkerInserter(c).with(Key.rev, commit, Key.commit, commit);
+        final ObjectId treeId = resolveRootTree(commit.getTree().getId(), uc);
+        if (config.isRewritingMetadataInParallel) {
+            metadataMapping.put(commit.getId(), rewriteMetadata(commit, uc));
+        }
+        if (!config.isPipelining) {
+            commit.disposeBody();
+        }
+        return treeId;
+    }
+
+    /**
+     * Stops the root tree pipeline, if any, and releases its resources.
+     */
+    protected void stopPipeline() {
+        if (pipeline != null) {
+            pipeline.close();
+            pipeline = null;
+            treePool = null;
         }
+    }
+
+    /**
+     * Returns a context whose inserter is owned by the current worker thread.
+     */
+    protected Context withWorkerInserter(final Context c) {
+        final ObjectInserter ins = workerInserters.computeIfAbsent(Thread.currentThread().getId(), k -> target.getInserter());
+        return c.with(Key.inserter, ins);
+    }
 
-        // finalize
-        for (final Context uc : cxts.values()) {
-            uc.getInserter().close();
+    /**
+     * Flushes and closes the inserters owned by worker threads.
+     */
+    private void closeWorkerInserters() {
+        for (final ObjectInserter ins : workerInserters.values()) {
+            Try.io(ins::flush);
+            ins.close();
         }
+        workerInserters.clear();
     }
 
     /**
@@ -309,24 +563,27 @@ public class RepositoryRewriter implements RewriterCommand {
     /**
      * Rewrites a commit.
      *
+     * <p>The body of the commit (its message and idents) is loaded here, since the commit table
+     * does not retain it, and is disposed by the caller once the commit is written.</p>
+     *
      * @param commit target commit.
      * @return the object ID of the rewritten commit
      */
     @SuppressWarnings("UnusedReturnValue")
     protected ObjectId rewriteCommit(final RevCommit commit, final Context c) {
+        source.parseBody(commit);
         final Context uc = c.with(Key.rev, commit, Key.commit, commit);
         final ObjectId[] parentIds = rewriteParents(commit.getParents(), uc);
         final ObjectId treeId = rewriteRootTree(commit.getTree().getId(), uc);
-        final PersonIdent author = rewriteAuthor(commit.getAuthorIdent(), uc);
-        final PersonIdent committer = rewriteCommitter(commit.getCommitterIdent(), uc);
-        final String msg = rewriteCommitMessage(commit.getFullMessage(), uc);
+        CommitMetadata meta = metadataMapping.remove(commit.getId());
+        if (meta == null) {
+            meta = rewriteMetadata(commit, uc);
+        }
         ObjectId newId;
         if (config.isRewritingExtraAttributes) {
-            final Charset enc = rewriteEncoding(commit.getEncoding(), uc);
-            final GpgSignature sig = rewriteSignature(commit.getRawGpgSignature(), uc);
-            newId = target.writeCommit(parentIds, treeId, author, committer, msg, enc, sig, uc);
+            newId = target.writeCommit(parentIds, treeId, meta.author, meta.committer, meta.message, meta.encoding, meta.signature, uc);
         } else {
-            newId = target.writeCommit(parentIds, treeId, author, committer, msg, uc);
+            newId = target.writeCommit(parentIds, treeId, meta.author, meta.committer, meta.message, uc);
         }
 
         final ObjectId oldId = commit.getId().copy();
@@ -343,6 +600,21 @@ public class RepositoryRewriter implements RewriterCommand {
         return newId;
     }
 
+    /**
+     * Rewrites the idents and the message of a commit, and with {@code --extra-attributes},
+     * its encoding and signature.
+     */
+    private CommitMetadata rewriteMetadata(final RevCommit commit, final Context c) {
+        final PersonIdent author = rewriteAuthor(commit.getAuthorIdent(), c);
+        final PersonIdent committer = rewriteCommitter(commit.getCommitterIdent(), c);
+        final String msg = rewriteCommitMessage(commit.getFullMessage(), c);
+        if (config.isRewritingExtraAttributes) {
+            final Charset enc = rewriteEncoding(commit.getEncoding(), c);
+            final GpgSignature sig = rewriteSignature(commit.getRawGpgSignature(), c);
+            return new CommitMetadata(author, committer, msg, enc, sig);
+        }
+        return new CommitMetadata(author, committer, msg, null, null);
+    }
 
     /**
      * Rewrites the parents of a commit.
@@ -366,6 +638,19 @@ public class RepositoryRewriter implements RewriterCommand {
      * Rewrites the root tree of a commit.
      */
     protected ObjectId rewriteRootTree(final ObjectId treeId, final Context c) {
+        if (pipeline != null) {
+            final ObjectId result = pipeline.await(treeId);
+            if (result != null) {
+                return result;
+            }
+        }
+        return resolveRootTree(treeId, c);
+    }
+
+    /**
+     * Resolves the root tree of a commit using the root tree mapping, without waiting for the pipeline.
+     */
+    private ObjectId resolveRootTree(final ObjectId treeId, final Context c) {
         final ObjectId cache = rootTreeMapping.get(treeId);
         if (cache != null) {
             return cache;
@@ -373,7 +658,16 @@ public class RepositoryRewriter implements RewriterCommand {
 
         // A root tree is represented as a special entry whose name is "/"
         final Entry root = Entry.of(FileMode.TREE.getBits(), "", treeId, isPathSensitive ? "" : null);
-        final AnyColdEntry newRoot = entryResolver.resolve(root, c);
+        final AnyColdEntry newRoot;
+        if (config.isDiffingTrees) {
+            final TreeSnapshot snapshot = resolveTreeSnapshot(root, getParentSnapshot(c), c);
+            if (snapshot.isExpanded()) {
+                rootTreeSnapshots.put(treeId, snapshot);
+            }
+            newRoot = snapshot.result;
+        } else {
+            newRoot = entryResolver.resolve(root, c);
+        }
         final ObjectId newId = newRoot instanceof AnyColdEntry.Empty ? target.writeTree(Collections.emptyList(), c) : ((Entry) newRoot).id;
 
         log.debug("Rewrite root tree: {} -> {} {}", treeId.name(), newId.name(), c);
@@ -381,22 +675,142 @@ public class RepositoryRewriter implements RewriterCommand {
         return newId;
     }
 
+    /**
+     * Returns the snapshot of the root tree of the first parent of the current commit, if available.
+     */
+    private TreeSnapshot getParentSnapshot(final Context c) {
+        final RevCommit commit = c.getCommit();
+        if (commit == null || commit.getParentCount() == 0 || commit.getParent(0).getTree() == null) {
+            return null;
+        }
+        return rootTreeSnapshots.getIfPresent(commit.getParent(0).getTree().getId());
+    }
+
+    /**
+     * Rewrites a tree against the snapshot of its counterpart in the first parent, recording
+     * a new snapshot. Only the children that differ from the base are resolved; the results
+     * of the others are reused from the base as they are.
+     *
+     * @param base the snapshot of the counterpart tree, or {@code null} if unavailable
+     */
+    private TreeSnapshot rewriteTreeSnapshot(final Entry entry, final TreeSnapshot base, final Context c) {
+        final Map<String, TreeSnapshot> children = new ConcurrentHashMap<>();
+        final EntryResolver resolver = (e, uc) -> {
+            final TreeSnapshot prev = base != null ? base.getChild(e.name) : null;
+            final TreeSnapshot node;
+            if (prev != null && prev.source.equals(e)) {
+                diffReuses.incrementAndGet();
+                node = prev;
+            } else if (e.isTree()) {
+                node = resolveTreeSnapshot(e, prev != null && prev.isExpanded() ? prev : null, uc);
+            } else {
+                node = TreeSnapshot.leaf(e, entryResolver.resolve(e, uc));
+            }
+            children.put(e.name, node);
+            return node.result;
+        };
+        final AnyColdEntry result = rewriteTreeWith(entry, resolver, c);
+        return new TreeSnapshot(entry, result, children);
+    }
+
+    /**
+     * Resolves a tree through the single flight of {@link #resolveOnce}, so that a tree is
+     * rewritten only once across workers. The tree is rewritten by {@link #rewriteEntry}, which
+     * takes the base snapshot requested here. A tree that is cached, rewritten by another worker,
+     * or rewritten by an override without {@code super.rewriteEntry} results in a snapshot
+     * without children.
+     */
+    private TreeSnapshot resolveTreeSnapshot(final Entry entry, final TreeSnapshot base, final Context c) {
+        final SnapshotRequest request = new SnapshotRequest(base);
+        final AnyColdEntry result = resolveOnce(entry, c, (e, uc) -> {
+            snapshotRequests.put(e, request);
+            try {
+                return rewriteEntry(e, uc);
+            } finally {
+                snapshotRequests.remove(e, request);
+            }
+        });
+        return request.expanded != null ? request.expanded.withResult(result) : TreeSnapshot.leaf(entry, result);
+    }
+
+    /**
+     * Rewrites a tree entry with the entry resolver or, if a snapshot has been requested for it
+     * in the diff-driven mode, against its base snapshot.
+     */
+    private AnyColdEntry rewriteTree(final Entry entry, final Context c) {
+        final SnapshotRequest request = config.isDiffingTrees ? snapshotRequests.remove(entry) : null;
+        if (request == null) {
+            return rewriteTreeWith(entry, entryResolver, c);
+        }
+        request.expanded = rewriteTreeSnapshot(entry, request.base, c);
+        return request.expanded.result;
+    }
+
     /**
      * The entry resolver that provides cached entry resolution.
      * Translators use this to resolve child entries during tree rewriting.
      */
-    protected final EntryResolver entryResolver = (entry, c) -> {
+    protected final EntryResolver entryResolver = (entry, c) -> resolveOnce(entry, c, this::rewriteEntry);
+
+    /**
+     * Resolves an entry from the entry mapping, or rewrites it with the given function if it is
+     * not cached. Concurrent resolutions of the same entry rewrite it only once.
+     */
+    private AnyColdEntry resolveOnce(final Entry entry, final Context c, final BiFunction<Entry, Context, AnyColdEntry> rewriter) {
         // computeIfAbsent is unsuitable because this may be invoked recursively
         final AnyColdEntry cached = entryMapping.get(entry);
         if (cached != null) {
             (entry.isTree() ? treeCacheHits : blobCacheHits).incrementAndGet();
             return cached;
         }
-        (entry.isTree() ? treeCacheMisses : blobCacheMisses).incrementAndGet();
-        final AnyColdEntry result = rewriteEntry(entry, c);
-        entryMapping.put(entry, result);
-        return result;
-    };
+
+        // Single flight: only the first arrival rewrites the entry; the others wait for it.
+        final InflightEntry future = new InflightEntry();
+        final InflightEntry running = inflightEntries.putIfAbsent(entry, future);
+        if (running != null) {
+            if (running.owner == Thread.currentThread()) {
+                // A worker joining forked subtrees may run other tasks meanwhile, which can reach an
+                // entry that the same worker is rewriting further down its stack. Waiting for it would
+                // never end, so the entry is rewritten again here without the single flight.
+                return rewriter.apply(entry, c);
+            }
+            duplicatesAvoided.incrementAndGet();
+            return join(running);
+        }
+        try {
+            // The first computation may have finished just before the registration
+            AnyColdEntry result = entryMapping.get(entry);
+            if (result == null) {
+                (entry.isTree() ? treeCacheMisses : blobCacheMisses).incrementAndGet();
+                result = rewriter.apply(entry, c);
+                entryMapping.put(entry, result);
+            }
+            future.complete(result);
+            return result;
+        } catch (final RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflightEntries.remove(entry, future);
+        }
+    }
+
+    /**
+     * Waits for an entry being rewritten by another thread, rethrowing its failure as is.
+     */
+    private static <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            if (e.getCause() instanceof Error err) {
+                throw err;
+            }
+            throw e;
+        }
+    }
 
     /**
      * Rewrites an entry by dispatching to the appropriate type.
@@ -404,18 +818,23 @@ public class RepositoryRewriter implements RewriterCommand {
     protected AnyColdEntry rewriteEntry(final Entry entry, final Context c) {
         final Context uc = c.with(Key.entry, entry);
         final AnyColdEntry result = switch (entry.getType()) {
-            case blob -> rewriteBlobEntry(HotEntry.of(entry, source), uc).fold(target, uc);
-            case tree -> {
-                final String path = entry.isRoot() ? "" : c.getPath() + "/" + entry.name;
-                final String dir = isPathSensitive ? path : null;
-                yield rewriteTreeEntry(HotEntry.ofTree(entry, source, dir), entryResolver, uc.with(Key.path, path));
-            }
+            case blob -> translateSharedBlob(entry, uc);
+            case tree -> rewriteTree(entry, c);
             case link -> rewriteLinkEntry(entry, uc);
         };
         log.debug("Rewrite {}: {} -> {} {}", entry.getType(), entry, result, c);
         return result;
     }
 
+    /**
+     * Rewrites a tree entry, resolving its children with the given resolver.
+     */
+    private AnyColdEntry rewriteTreeWith(final Entry entry, final EntryResolver resolver, final Context c) {
+        final String path = entry.isRoot() ? "" : c.getPath() + "/" + entry.name;
+        final String dir = isPathSensitive ? path : null;
+        return rewriteTreeEntry(HotEntry.ofTree(entry, source, dir), resolver, c.with(Key.entry, entry, Key.path, path));
+    }
+
     protected AnyHotEntry rewriteBlobEntry(BlobEntry entry, Context c) {
         return entry;
     }
@@ -426,8 +845,7 @@ public class RepositoryRewriter implements RewriterCommand {
      */
     protected AnyColdEntry rewriteTreeEntry(TreeEntry entry, EntryResolver resolver, Context c) {
         final List<Entry> entries = new ArrayList<>();
-        for (final Entry e : entry.getEntries()) {
-            final AnyColdEntry rewritten = resolver.resolve(e, c);
+        for (final AnyColdEntry rewritten : resolveChildren(entry.getEntries(), resolver, c)) {
             rewritten.stream().filter(r -> !r.getId().equals(ZERO)).forEach(entries::add);
         }
         final ObjectId newId = entries.isEmpty() ? ZERO : target.writeTree(entries, c);
@@ -437,6 +855,148 @@ public class RepositoryRewriter implements RewriterCommand {
         return newId == ZERO ? AnyColdEntry.empty() : Entry.of(entry.getMode(), entry.getName(), newId, entry.getDirectory());
     }
 
+    /**
+     * Resolves the children of a tree, keeping their order. When running on a worker of
+     * the parallel passes, subtrees of a shallow tree are forked as subtasks so that even
+     * a single large root tree can be spread across all the workers.
+     */
+    protected List<AnyColdEntry> resolveChildren(final List<Entry> children, final EntryResolver resolver, final Context c) {
+        if (blobExecutor == null) {
+            return resolveChildrenWith(children, resolver, c);
+        }
+        final List<CompletableFuture<AnyHotEntry>> blobs = submitBlobs(children, c);
+        try {
+            return resolveChildrenWith(children, resolver, c);
+        } finally {
+            // drop and cancel the translations that were not taken, e.g., because of cache hits
+            for (int i = 0; i < children.size(); i++) {
+                if (blobs.get(i) != null && pendingBlobs.remove(children.get(i), blobs.get(i))) {
+                    blobs.get(i).cancel(false);
+                }
+            }
+        }
+    }
+
+    private List<AnyColdEntry> resolveChildrenWith(final List<Entry> children, final EntryResolver resolver, final Context c) {
+        final List<AnyColdEntry> result = new ArrayList<>(children.size());
+        if (!shouldForkChildren(children, c)) {
+            for (final Entry e : children) {
+                result.add(resolver.resolve(e, c));
+            }
+            return result;
+        }
+
+        final List<SubtreeTask> forks = new ArrayList<>(children.size());
+        for (final Entry e : children) {
+            // a forked subtask may run on another worker, which must use its own inserter
+            forks.add(e.isTree() ? (SubtreeTask) new SubtreeTask(() -> resolver.resolve(e, withWorkerInserter(c))).fork() : null);
+        }
+        for (int i = 0; i < children.size(); i++) {
+            final SubtreeTask fork = forks.get(i);
+            result.add(fork != null ? fork.joinResult() : resolver.resolve(children.get(i), c));
+        }
+        return result;
+    }
+
+    /**
+     * A forked resolution of a subtree. Its failure is kept and rethrown as is, since
+     * {@link ForkJoinTask#join()} rethrows a copy of an exception raised on another worker.
+     */
+    private static class SubtreeTask extends RecursiveTask<AnyColdEntry> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Supplier<AnyColdEntry> f;
+
+        private transient Throwable failure;
+
+        SubtreeTask(final Supplier<AnyColdEntry> f) {
+            this.f = f;
+        }
+
+        @Override
+        protected AnyColdEntry compute() {
+            try {
+                return f.get();
+            } catch (final RuntimeException | Error e) {
+                failure = e;
+                return null;
+            }
+        }
+
+        AnyColdEntry joinResult() {
+            final AnyColdEntry result = join();
+            if (failure instanceof RuntimeException re) {
+                throw re;
+            }
+            if (failure instanceof Error err) {
+                throw err;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Submits the translations of the blobs among the given entries that have not been rewritten
+     * yet to the blob executor. Returns the futures submitted by this call, aligned with the entries.
+     *
+     * <p>A translation is registered before it is started, so that only the thread winning the
+     * registration starts it.</p>
+     */
+    private List<CompletableFuture<AnyHotEntry>> submitBlobs(final List<Entry> children, final Context c) {
+        final List<CompletableFuture<AnyHotEntry>> result = new ArrayList<>(children.size());
+        for (final Entry e : children) {
+            CompletableFuture<AnyHotEntry> future = null;
+            if (e.isBlob() && !entryMapping.containsKey(e) && !pendingBlobs.containsKey(e)
+                    && (sharedCache == null || !sharedCache.contains(e))) {
+                final CompletableFuture<AnyHotEntry> f = new CompletableFuture<>();
+                if (pendingBlobs.putIfAbsent(e, f) == null) {
+                    final Context uc = c.with(Key.entry, e);
+                    blobExecutor.run(f, () -> rewriteBlobEntry(HotEntry.of(e, source), uc));
+                    future = f;
+                }
+            }
+            result.add(future);
+        }
+        return result;
+    }
+
+    /**
+     * Translates a blob entry and writes the result, importing it from the shared cache if available.
+     */
+    private AnyColdEntry translateSharedBlob(final Entry entry, final Context c) {
+        if (sharedCache == null) {
+            return translateBlob(entry, c).fold(target, c);
+        }
+        AnyHotEntry result = sharedCache.get(entry, source);
+        if (result == null) {
+            result = translateBlob(entry, c);
+            sharedCache.put(entry, result);
+        }
+        return result.fold(target, c);
+    }
+
+    /**
+     * Translates a blob entry, taking the result from the blob executor if it has been submitted.
+     */
+    private AnyHotEntry translateBlob(final Entry entry, final Context c) {
+        final CompletableFuture<AnyHotEntry> pending = blobExecutor != null ? pendingBlobs.remove(entry) : null;
+        return pending != null ? join(pending) : rewriteBlobEntry(HotEntry.of(entry, source), c);
+    }
+
+    /**
+     * Tests whether the subtrees of a tree should be forked across workers. Only the workers of
+     * the tree pool fork; e.g., a worker of the parallel commit writing pass could otherwise run
+     * another commit while joining the subtrees.
+     */
+    private boolean shouldForkChildren(final List<Entry> children, final Context c) {
+        if (config.nthreads < 2 || treePool == null || ForkJoinTask.getPool() != treePool) {
+            return false;
+        }
+        final String path = c.getPath();
+        final long depth = path == null ? 0 : path.chars().filter(ch -> ch == '/').count();
+        return depth < FORK_MAX_DEPTH && children.stream().filter(Entry::isTree).limit(FORK_MIN_SUBTREES).count() >= FORK_MIN_SUBTREES;
+    }
+
     protected AnyColdEntry rewriteLinkEntry(Entry entry, Context c) {
         return entry;
     }
@@ -632,7 +1192,7 @@ public class RepositoryRewriter implements RewriterCommand {
         final ObjectId newId = target.writeTag(newObjectId, type, tagName, tagger, message, uc);
         log.debug("Rewrite tag: {} -> {} {}", oldId.name(), newId.name(), c);
 
-        tagMapping.put(oldId, newId);
+        tagMapping.put(oldId.copy(), newId);
         return newId;
     }
 
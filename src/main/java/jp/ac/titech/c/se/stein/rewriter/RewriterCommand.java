@@ -12,6 +12,16 @@ public interface RewriterCommand {
 
     RepositoryRewriter toRewriter();
 
+    /**
+     * Returns the version of the output of this command. Increment it when a change of the
+     * implementation alters the results, so that the results cached by older versions are not reused.
+     *
+     * @see Fingerprint
+     */
+    default int getVersion() {
+        return 1;
+    }
+
     /**
      * Optimizes a list of commands by composing consecutive translators.
      * Phase 1: compose consecutive BlobTranslators.
@@ -0,0 +1,235 @@
+package jp.ac.titech.c.se.stein.rewriter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Streams root tree rewriting ahead of the sequential commit writing pass.
+ *
+ * <p>A producer thread iterates commits in topological order and submits the rewriting of
+ * each root tree to a {@link ForkJoinPool}. The commit writing pass obtains the result of
+ * a tree via {@link #await(ObjectId)}, which blocks only until that particular tree is ready,
+ * so both passes overlap instead of running back to back.</p>
+ *
+ * <p>The number of submitted but unfinished trees is bounded by a window, so the producer
+ * never runs far ahead of the workers. A tree that the producer never submits (e.g., the
+ * consumer iterates a different set of commits) makes {@link #await(ObjectId)} return
+ * {@code null} once the producer is done; the caller then rewrites the tree by itself.</p>
+ *
+ * <p>If rewriting a tree fails, the producer stops, and the failure is rethrown from
+ * {@link #await(ObjectId)} to the commit writing pass, whichever tree it waits for.</p>
+ */
+@Slf4j
+public class RootTreePipeline implements AutoCloseable {
+    private final ForkJoinPool pool;
+
+    private final Semaphore window;
+
+    /**
+     * Results of completed trees (the root tree mapping).
+     */
+    private final Map<ObjectId, ObjectId> results;
+
+    /**
+     * The rewriting operation applied to each commit.
+     */
+    private final Function<RevCommit, ObjectId> f;
+
+    /**
+     * Submitted but unfinished tasks, keyed by source tree ID.
+     */
+    private final Map<ObjectId, TreeTask> tasks = new ConcurrentHashMap<>();
+
+    private final Object lock = new Object();
+
+    private Thread producer;
+
+    private volatile boolean isProducing = false;
+
+    /**
+     * The first failure of the producer or a task.
+     */
+    private volatile Throwable failure;
+
+    public RootTreePipeline(final int nthreads, final int windowSize, final Map<ObjectId, ObjectId> results, final Function<RevCommit, ObjectId> f) {
+        this.pool = new ForkJoinPool(nthreads);
+        this.window = new Semaphore(windowSize);
+        this.results = results;
+        this.f = f;
+    }
+
+    /**
+     * Returns the pool the root trees are rewritten on.
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Starts the producer thread over the given commits.
+     */
+    public void start(final Iterable<RevCommit> commits) {
+        isProducing = true;
+        producer = new Thread(() -> produce(commits), "stein-tree-producer");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    private void produce(final Iterable<RevCommit> commits) {
+        long count = 0;
+        try {
+            for (final RevCommit commit : commits) {
+                if (failure != null) {
+                    break;
+                }
+                final ObjectId treeId = commit.getTree().getId();
+                if (results.containsKey(treeId) || tasks.containsKey(treeId)) {
+                    continue;
+                }
+                window.acquire();
+                final TreeTask task = new TreeTask(treeId, commit);
+                tasks.put(treeId, task);
+                pool.execute(task);
+                count++;
+                signal();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final RuntimeException | Error e) {
+            fail(e);
+        } finally {
+            isProducing = false;
+            signal();
+        }
+        log.debug("Pipeline producer finished: {} trees submitted", count);
+    }
+
+    /**
+     * Waits for the rewritten root tree of the given source tree.
+     *
+     * @return the rewritten tree ID, or {@code null} if the tree will not be produced by this pipeline
+     */
+    public ObjectId await(final ObjectId treeId) {
+        while (true) {
+            checkFailure();
+            final TreeTask task = tasks.get(treeId);
+            if (task != null) {
+                try {
+                    return task.join();
+                } catch (final RuntimeException | Error e) {
+                    // rethrows the original instead of the copy made by the join
+                    checkFailure();
+                    throw e;
+                }
+            }
+            final ObjectId result = results.get(treeId);
+            if (result != null) {
+                return result;
+            }
+            if (!isProducing) {
+                // a task may have failed after the producer finished
+                checkFailure();
+                return null;
+            }
+            synchronized (lock) {
+                while (isProducing && failure == null && !tasks.containsKey(treeId) && !results.containsKey(treeId)) {
+                    try {
+                        lock.wait();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                }
+            }
+        }
+    }
+
+    private void fail(final Throwable e) {
+        synchronized (lock) {
+            if (failure == null) {
+                failure = e;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Rethrows the first failure, if any.
+     */
+    private void checkFailure() {
+        final Throwable e = failure;
+        if (e instanceof RuntimeException re) {
+            throw re;
+        }
+        if (e instanceof Error err) {
+            throw err;
+        }
+    }
+
+    private void signal() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops the producer and waits for the submitted tasks to finish.
+     */
+    @Override
+    public void close() {
+        if (producer != null) {
+            producer.interrupt();
+            try {
+                producer.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.debug("Pool stats: steal={}", pool.getStealCount());
+    }
+
+    /**
+     * A task rewriting a single root tree.
+     */
+    private class TreeTask extends RecursiveTask<ObjectId> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient ObjectId treeId;
+
+        private final transient RevCommit commit;
+
+        TreeTask(final ObjectId treeId, final RevCommit commit) {
+            this.treeId = treeId;
+            this.commit = commit;
+        }
+
+        @Override
+        protected ObjectId compute() {
+            try {
+                return f.apply(commit);
+            } catch (final RuntimeException | Error e) {
+                fail(e);
+                throw e;
+            } finally {
+                tasks.remove(treeId, this);
+                window.release();
+                signal();
+            }
+        }
+    }
+}
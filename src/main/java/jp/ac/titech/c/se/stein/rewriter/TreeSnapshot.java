@@ -0,0 +1,64 @@
+package jp.ac.titech.c.se.stein.rewriter;
+
+import java.util.Map;
+
+import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+
+/**
+ * A source entry remembered together with its rewritten result and, for trees rewritten
+ * in the diff-driven mode, the snapshots of its children.
+ *
+ * <p>Snapshots of consecutive commits share the nodes of unchanged subtrees, so keeping
+ * the snapshots of recent root trees costs memory proportional to the changes only.</p>
+ */
+final class TreeSnapshot {
+    /**
+     * The source entry.
+     */
+    final Entry source;
+
+    /**
+     * The rewritten result of the source entry.
+     */
+    final AnyColdEntry result;
+
+    /**
+     * Snapshots of the children by name, or {@code null} if this node has not been expanded.
+     */
+    private final Map<String, TreeSnapshot> children;
+
+    TreeSnapshot(final Entry source, final AnyColdEntry result, final Map<String, TreeSnapshot> children) {
+        this.source = source;
+        this.result = result;
+        this.children = children;
+    }
+
+    /**
+     * Creates a snapshot without children.
+     */
+    static TreeSnapshot leaf(final Entry source, final AnyColdEntry result) {
+        return new TreeSnapshot(source, result, null);
+    }
+
+    /**
+     * Returns this snapshot with the given result, e.g., one replaced by an override of the rewriting.
+     */
+    TreeSnapshot withResult(final AnyColdEntry result) {
+        return result == this.result ? this : new TreeSnapshot(source, result, children);
+    }
+
+    /**
+     * Tests whether the children of this snapshot are available.
+     */
+    boolean isExpanded() {
+        return children != null;
+    }
+
+    /**
+     * Returns the snapshot of the child with the given name, or {@code null} if absent.
+     */
+    TreeSnapshot getChild(final String name) {
+        return children != null ? children.get(name) : null;
+    }
+}
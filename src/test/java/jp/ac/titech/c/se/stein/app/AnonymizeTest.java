@@ -1,5 +1,7 @@
 package jp.ac.titech.c.se.stein.app;
 
+import jp.ac.titech.c.se.stein.Application;
+import jp.ac.titech.c.se.stein.core.Context;
 import jp.ac.titech.c.se.stein.entry.Entry;
 import jp.ac.titech.c.se.stein.core.RepositoryAccess;
 import jp.ac.titech.c.se.stein.testing.TestRepo;
@@ -10,6 +12,7 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -103,4 +106,37 @@ public class AnonymizeTest {
         assertNotNull(result.getRef("refs/tags/t1"));
     }
 
+
+    private static RepositoryAccess rewriteBranching(final RepositoryAccess source, final Consumer<Application.Config> configurer) {
+        final Anonymize anonymize = new Anonymize();
+        anonymize.isAuthorNameEnabled = true;
+        anonymize.isMessageEnabled = true;
+        final Application.Config config = new Application.Config();
+        configurer.accept(config);
+        anonymize.setConfig(config);
+        final RepositoryAccess target = TestRepo.create();
+        anonymize.initialize(source.repo, target.repo);
+        anonymize.rewrite(Context.init());
+        return target;
+    }
+
+    @Test
+    public void testParallelNumbering() throws IOException {
+        try (RepositoryAccess branching = TestRepo.createBranching();
+             RepositoryAccess sequential = rewriteBranching(branching, config -> {});
+             RepositoryAccess parallel = rewriteBranching(branching, config -> {
+                 config.nthreads = 4;
+                 config.isWritingCommitsInParallel = true;
+             });
+             RepositoryAccess metadata = rewriteBranching(branching, config -> {
+                 config.nthreads = 4;
+                 config.isRewritingMetadataInParallel = true;
+             })) {
+            // the authors are numbered alike regardless of the scheduling
+            for (final String ref : List.of("refs/heads/main", "refs/heads/topic")) {
+                assertEquals(sequential.getRef(ref).getObjectId(), parallel.getRef(ref).getObjectId());
+                assertEquals(sequential.getRef(ref).getObjectId(), metadata.getRef(ref).getObjectId());
+            }
+        }
+    }
 }
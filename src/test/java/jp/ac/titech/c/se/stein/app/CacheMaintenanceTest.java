@@ -0,0 +1,124 @@
+package jp.ac.titech.c.se.stein.app;
+
+import jp.ac.titech.c.se.stein.Application;
+import jp.ac.titech.c.se.stein.app.blob.HistorageViaJDT;
+import jp.ac.titech.c.se.stein.core.Context;
+import jp.ac.titech.c.se.stein.core.RepositoryAccess;
+import jp.ac.titech.c.se.stein.core.cache.PersistentEntryCache;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import jp.ac.titech.c.se.stein.rewriter.Fingerprint;
+import jp.ac.titech.c.se.stein.rewriter.RepositoryRewriter;
+import jp.ac.titech.c.se.stein.testing.TestRepo;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheMaintenanceTest {
+    static RepositoryAccess source;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        source = TestRepo.createSample(true);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        source.close();
+    }
+
+    private static void run(final RepositoryRewriter rewriter, final Repository sourceRepo, final Repository target) {
+        final Application.Config config = new Application.Config();
+        config.isCachingEnabled = true;
+        rewriter.setConfig(config);
+        rewriter.initialize(sourceRepo, target);
+        rewriter.rewrite(Context.init());
+    }
+
+    private static void maintain(final Repository target, final String... args) {
+        final CacheMaintenance cmd = new CacheMaintenance();
+        new CommandLine(cmd).parseArgs(args);
+        run(cmd, target, target);
+    }
+
+    private static void rewriteWithCache(final Repository target) {
+        run(new HistorageViaJDT().toRewriter(), source.repo, target);
+    }
+
+    private static long countEntries(final Repository target) {
+        try (PersistentEntryCache cache = new PersistentEntryCache(target)) {
+            return cache.getNamespaces().keySet().stream().mapToLong(ns -> cache.openEntries(ns).sizeAsLong()).sum();
+        }
+    }
+
+    /**
+     * Returns the sizes of the root tree, tag, and ref mappings of the rewriter's namespace.
+     */
+    private static List<Integer> countMappings(final Repository target) {
+        try (PersistentEntryCache cache = new PersistentEntryCache(target, 1 << 20, Fingerprint.of(new HistorageViaJDT().toRewriter()), "")) {
+            return List.of(cache.getRootTreeMapping().size(), cache.getTagMapping().size(), cache.getRefEntryMapping().size());
+        }
+    }
+
+    @Test
+    public void testExportImport(@TempDir final Path dir) throws IOException {
+        try (RepositoryAccess target = TestRepo.create(true)) {
+            rewriteWithCache(target.repo);
+            final long n = countEntries(target.repo);
+            assertTrue(n > 0);
+            final List<Integer> mappings = countMappings(target.repo);
+            assertTrue(mappings.stream().allMatch(size -> size > 0));
+
+            final Path snapshot = dir.resolve("cache.snapshot");
+            maintain(target.repo, "--stats", "--export", snapshot.toString());
+            assertTrue(Files.exists(snapshot));
+
+            Files.delete(PersistentEntryCache.getFile(target.repo));
+            maintain(target.repo, "--import", snapshot.toString(), "--compact");
+            assertEquals(n, countEntries(target.repo));
+            assertEquals(mappings, countMappings(target.repo));
+        }
+    }
+
+    @Test
+    public void testPrune() throws IOException {
+        try (RepositoryAccess target = TestRepo.create(true); RepositoryAccess other = TestRepo.create(true)) {
+            rewriteWithCache(target.repo);
+            assertTrue(countEntries(target.repo) > 0);
+
+            // the objects referred to by the entries are missing in the other repository
+            Files.copy(PersistentEntryCache.getFile(target.repo), PersistentEntryCache.getFile(other.repo), StandardCopyOption.REPLACE_EXISTING);
+            maintain(other.repo, "--prune");
+            assertEquals(0, countEntries(other.repo));
+
+            maintain(target.repo, "--prune");
+            assertTrue(countEntries(target.repo) > 0);
+        }
+    }
+
+    @Test
+    public void testPruneKeepsLinks() {
+        final Entry key = Entry.of(FileMode.GITLINK.getBits(), "sub", ObjectId.zeroId());
+        final Entry link = Entry.of(FileMode.GITLINK.getBits(), "sub", ObjectId.fromString("0123456789abcdef0123456789abcdef01234567"));
+        try (RepositoryAccess target = TestRepo.create(true)) {
+            try (PersistentEntryCache cache = new PersistentEntryCache(target.repo, 1 << 20)) {
+                cache.getEntryMapping().put(key, link);
+            }
+            // the submodule commit is not in the repository, but the entry stays
+            maintain(target.repo, "--prune");
+            assertEquals(1, countEntries(target.repo));
+        }
+    }
+}
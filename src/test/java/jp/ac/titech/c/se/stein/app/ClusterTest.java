@@ -36,13 +36,19 @@ public class ClusterTest {
     }
 
     RepositoryAccess clusterWith(String recipeJson) throws IOException {
+        return clusterWith(recipeJson, 1);
+    }
+
+    RepositoryAccess clusterWith(String recipeJson, int nthreads) throws IOException {
         final Path recipeFile = Files.createTempFile("recipe", ".json");
         Files.writeString(recipeFile, recipeJson);
 
         try {
             final Cluster cluster = new Cluster();
             cluster.recipeFile = recipeFile.toFile();
-            cluster.setConfig(new Application.Config());
+            final Application.Config config = new Application.Config();
+            config.nthreads = nthreads;
+            cluster.setConfig(config);
 
             final Repository targetRepo = new InMemoryRepository(new DfsRepositoryDescription("target"));
             cluster.initialize(source.repo, targetRepo);
@@ -65,6 +71,23 @@ public class ClusterTest {
         }
     }
 
+    @Test
+    public void testParallelTrees() throws IOException {
+        final String recipe = String.format(
+                "{\"forcedClusters\": [[\"%s\", \"%s\"]]}",
+                commits.get(0).name(), commits.get(1).name());
+
+        try (RepositoryAccess expected = clusterWith(recipe);
+             RepositoryAccess actual = clusterWith(recipe, 4)) {
+            final List<RevCommit> expectedCommits = expected.collectCommits("refs/heads/main");
+            final List<RevCommit> actualCommits = actual.collectCommits("refs/heads/main");
+            assertEquals(2, actualCommits.size());
+            for (int i = 0; i < expectedCommits.size(); i++) {
+                assertEquals(expectedCommits.get(i).getId(), actualCommits.get(i).getId());
+            }
+        }
+    }
+
     @Test
     public void testForcedClusterMergesTwoCommits() throws IOException {
         // force merge commit2 into commit1 (they are parent-child, so safe merge would refuse)
@@ -1,7 +1,11 @@
 package jp.ac.titech.c.se.stein.app;
 
+import jp.ac.titech.c.se.stein.PorcelainAPI;
 import jp.ac.titech.c.se.stein.core.RepositoryAccess;
+import jp.ac.titech.c.se.stein.entry.Entry;
 import jp.ac.titech.c.se.stein.testing.TestRepo;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.jupiter.api.AfterAll;
@@ -71,4 +75,42 @@ public class IdentityTest {
             assertEquals(sourceCommits.get(i).getId(), targetCommits.get(i).getId());
         }
     }
+
+    @Test
+    public void testRawCopy() throws IOException {
+        try (RepositoryAccess packed = TestRepo.createSample(true); RepositoryAccess target = TestRepo.create(true)) {
+            // pack the source so that the stored representations can be reused
+            new PorcelainAPI((FileRepository) packed.repo).repack();
+            TestRepo.rewrite(packed, target, new Identity());
+
+            final List<RevCommit> expected = packed.collectCommits("refs/heads/main");
+            final List<RevCommit> actual = target.collectCommits("refs/heads/main");
+            assertEquals(expected.size(), actual.size());
+            final ObjectDirectory odb = ((FileRepository) target.repo).getObjectDatabase();
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getId(), actual.get(i).getId());
+                for (final Entry e : target.readTree(actual.get(i).getTree().getId(), null)) {
+                    if (e.isBlob()) {
+                        // copied into a pack, not written as a loose object
+                        assertFalse(odb.fileFor(e.getId()).exists());
+                        assertArrayEquals(packed.readBlob(e.getId()), target.readBlob(e.getId()));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRawCopyWithAlternates() throws IOException {
+        try (RepositoryAccess packed = TestRepo.createSample(true); RepositoryAccess target = TestRepo.create(true)) {
+            target.setRawCopySource(packed);
+            assertTrue(target.isCopyingRawFrom(packed));
+        }
+        try (RepositoryAccess packed = TestRepo.createSample(true); RepositoryAccess target = TestRepo.create(true)) {
+            target.setupAlternates(packed.repo, true);
+            target.setRawCopySource(packed);
+            // the objects are shared, so nothing is copied
+            assertFalse(target.isCopyingRawFrom(packed));
+        }
+    }
 }
@@ -0,0 +1,58 @@
+package jp.ac.titech.c.se.stein.core;
+
+import jp.ac.titech.c.se.stein.jgit.RevWalk;
+import jp.ac.titech.c.se.stein.testing.TestRepo;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommitTableTest {
+    static RepositoryAccess source;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        source = TestRepo.createSample();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        source.close();
+    }
+
+    private CommitTable build(final String refName) {
+        final RevWalk walk = source.walk();
+        Try.io(() -> walk.memoMarkStart(source.getRef(refName).getObjectId()));
+        return CommitTable.of(walk);
+    }
+
+    @Test
+    public void testIndices() {
+        final List<RevCommit> expected = source.collectCommits("refs/heads/main");
+        try (CommitTable table = build("refs/heads/main")) {
+            assertEquals(expected.size(), table.size());
+            for (int i = 0; i < table.size(); i++) {
+                assertEquals(expected.get(i).getId(), table.get(i).getId());
+                assertEquals(expected.get(i).getTree().getId(), table.getTreeId(i));
+                assertEquals(i, table.indexOf(expected.get(i)));
+            }
+            assertEquals(-1, table.getFirstParent(0));
+            assertEquals(0, table.getFirstParent(1));
+            assertArrayEquals(new int[] { 1 }, table.getParents(2));
+        }
+    }
+
+    @Test
+    public void testLazyBody() {
+        try (CommitTable table = build("refs/heads/main")) {
+            final RevCommit commit = table.get(0);
+            assertNull(commit.getRawBuffer());
+            assertEquals("initial", source.parseBody(commit).getFullMessage());
+        }
+    }
+}
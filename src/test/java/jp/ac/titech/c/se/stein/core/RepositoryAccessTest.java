@@ -208,6 +208,56 @@ public class RepositoryAccessTest {
         assertNotNull(Try.io(() -> notes.get(commitId)));
     }
 
+    @Test
+    public void testIncrementalNotes() {
+        final Context nc = Context.init();
+        final ObjectId id1 = ObjectId.fromString(String.format("%040x", 1));
+        final ObjectId id2 = ObjectId.fromString(String.format("%040x", 2));
+        final NoteMap notes = ra.readNotes("refs/notes/test");
+        ra.addNote(notes, id1, HELLO, nc);
+        ra.writeNotes(notes, "refs/notes/test", nc);
+        final RevCommit first = ra.getHead("refs/notes/test");
+        assertEquals(0, first.getParentCount());
+
+        // unchanged notes do not produce a new commit
+        ra.writeNotes(ra.readNotes("refs/notes/test"), "refs/notes/test", nc);
+        assertEquals(first, ra.getHead("refs/notes/test"));
+
+        // new notes are chained onto the previous notes commit
+        final NoteMap next = ra.readNotes("refs/notes/test");
+        ra.addNote(next, id2, HELLO, nc);
+        ra.writeNotes(next, "refs/notes/test", nc);
+        final RevCommit second = ra.getHead("refs/notes/test");
+        assertEquals(1, second.getParentCount());
+        assertEquals(first, second.getParent(0));
+        final NoteMap result = ra.readNotes("refs/notes/test");
+        assertEquals(Try.io(() -> result.get(id1)), Try.io(() -> result.get(id2)));
+    }
+
+    @Test
+    public void testNoteIndex() {
+        final NoteMap notes = NoteMap.newEmptyMap();
+        // enough notes to make the note map fan out into subtrees
+        for (int i = 0; i < 300; i++) {
+            final ObjectId annotated = ObjectId.fromString(String.format("%040x", i + 1));
+            final ObjectId body = ObjectId.fromString(String.format("%040x", i + 1000));
+            ra.addNote(notes, annotated, body.name().getBytes(StandardCharsets.UTF_8), c);
+        }
+        final ObjectId other = ObjectId.fromString(String.format("%040x", 999));
+        ra.addNote(notes, other, "not an id".getBytes(StandardCharsets.UTF_8), c);
+        final ObjectId treeId = Try.io(() -> notes.writeTree(inserter));
+        final ObjectId commitId = ra.writeCommit(RepositoryAccess.NO_PARENTS, treeId, IDENT, IDENT, "notes", c);
+        flush();
+        ra.applyRefUpdate(new RefEntry("refs/notes/test", commitId));
+
+        final Map<ObjectId, ObjectId> index = ra.getNoteIndex("refs/notes/test");
+        assertEquals(300, index.size());
+        assertEquals(ObjectId.fromString(String.format("%040x", 1042)), index.get(ObjectId.fromString(String.format("%040x", 43))));
+        assertNull(index.get(other));
+        assertSame(index, ra.getNoteIndex("refs/notes/test"));
+        assertTrue(ra.getNoteIndex("refs/notes/missing").isEmpty());
+    }
+
     // --- Dry run ---
 
     @Test
@@ -0,0 +1,86 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import jp.ac.titech.c.se.stein.core.RepositoryAccess;
+import jp.ac.titech.c.se.stein.rewriter.BlobTranslator;
+import jp.ac.titech.c.se.stein.rewriter.RepositoryRewriter;
+import jp.ac.titech.c.se.stein.testing.TestRepo;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommitMapFileTest {
+    private static ObjectId id(final int n) {
+        return ObjectId.fromString(String.format("%040x", n));
+    }
+
+    @Test
+    public void testWriteAndMerge(@TempDir final Path dir) throws IOException {
+        final Path file = dir.resolve(CommitMapFile.FILE_NAME);
+        final Map<ObjectId, ObjectId> first = new HashMap<>();
+        for (int i = 0; i < 100; i += 2) {
+            first.put(id(i), id(i + 1000));
+        }
+        CommitMapFile.write(file, null, first, id(1));
+        final CommitMapFile base = CommitMapFile.open(file, id(1));
+        assertNotNull(base);
+        assertEquals(50, base.getSize());
+        assertEquals(id(1010), base.get(id(10)));
+        assertNull(base.get(id(11)));
+        assertNull(base.get(id(200)));
+
+        final Map<ObjectId, ObjectId> second = new HashMap<>();
+        second.put(id(11), id(2011));
+        second.put(id(10), id(2010));
+        second.put(id(500), id(2500));
+        CommitMapFile.write(file, base, second, id(2));
+        final CommitMapFile merged = CommitMapFile.open(file, id(2));
+        assertNotNull(merged);
+        assertEquals(52, merged.getSize());
+        assertEquals(id(2010), merged.get(id(10)));
+        assertEquals(id(2011), merged.get(id(11)));
+        assertEquals(id(1012), merged.get(id(12)));
+        assertEquals(id(2500), merged.get(id(500)));
+
+        // a file built from another notes commit is stale
+        assertNull(CommitMapFile.open(file, id(1)));
+        assertNull(CommitMapFile.open(dir.resolve("missing"), id(2)));
+    }
+
+    @Test
+    public void testSidecarOfRewrite() throws IOException {
+        final BlobTranslator upper = (entry, c) -> entry.update(entry.getContent().toUpperCase());
+        try (RepositoryAccess source = TestRepo.createSample(true); RepositoryAccess target = TestRepo.create(true)) {
+            TestRepo.rewrite(source, target, upper);
+            final Path file = target.repo.getDirectory().toPath().resolve(CommitMapFile.FILE_NAME);
+            assertTrue(Files.exists(file));
+
+            final ObjectId notesId = target.getRef(RepositoryRewriter.R_NOTES_PREV).getObjectId();
+            final CommitMapFile index = CommitMapFile.open(file, notesId);
+            assertNotNull(index);
+            final List<RevCommit> sources = source.collectCommits("refs/heads/main");
+            final List<RevCommit> targets = target.collectCommits("refs/heads/main");
+            assertEquals(sources.size(), index.getSize());
+            for (int i = 0; i < sources.size(); i++) {
+                assertEquals(targets.get(i).getId(), index.get(sources.get(i).getId()));
+            }
+
+            // a missing sidecar is rebuilt from the notes on a lookup miss
+            Files.delete(file);
+            final CommitMapping mapping = new CommitMapping();
+            mapping.restoreFromTarget(target, RepositoryRewriter.R_NOTES_PREV);
+            assertEquals(targets.get(0).getId(), mapping.get(sources.get(0).getId()));
+            assertTrue(Files.exists(file));
+            assertEquals(1, mapping.size());
+        }
+    }
+}
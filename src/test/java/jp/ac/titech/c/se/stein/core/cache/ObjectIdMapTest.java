@@ -0,0 +1,79 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ObjectIdMapTest {
+    /**
+     * Returns a distinct, uniformly distributed ID for the given number.
+     */
+    private static ObjectId id(final int n) {
+        return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, Integer.toString(n).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testPutAndGet() {
+        final ObjectIdMap map = new ObjectIdMap();
+        final Map<ObjectId, ObjectId> expected = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            assertNull(map.put(id(i), id(i + 100000)));
+            expected.put(id(i), id(i + 100000));
+        }
+        assertEquals(id(100005), map.put(id(5), id(7)));
+        expected.put(id(5), id(7));
+
+        assertEquals(10000, map.size());
+        assertEquals(id(7), map.get(id(5)));
+        assertEquals(id(109999), map.get(id(9999)));
+        assertNull(map.get(id(10000)));
+        assertNull(map.get("not an id"));
+        assertTrue(map.containsKey(id(0)));
+        assertFalse(map.containsKey(id(-1)));
+        assertEquals(expected, map);
+        assertEquals(expected, new HashMap<>(map));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(id(5)));
+    }
+
+    @Test
+    public void testZeroId() {
+        final ObjectIdMap map = new ObjectIdMap();
+        assertNull(map.get(ObjectId.zeroId()));
+        map.put(ObjectId.zeroId(), id(1));
+        assertEquals(id(1), map.get(ObjectId.zeroId()));
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        final ConcurrentObjectIdMap map = new ConcurrentObjectIdMap();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t * 10000;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    map.put(id(offset + i), id(offset + i + 1));
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, map.size());
+        assertEquals(id(12346), map.get(id(12345)));
+        assertEquals(id(12346), map.putIfAbsent(id(12345), id(0)));
+        assertNull(map.putIfAbsent(id(-1), id(0)));
+        assertEquals(40001, map.entrySet().size());
+        assertEquals(40001, new HashMap<>(map).size());
+    }
+}
@@ -0,0 +1,84 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapEntryMappingTest {
+    static final int BLOB_MODE = FileMode.REGULAR_FILE.getBits();
+    static final int TREE_MODE = FileMode.TREE.getBits();
+
+    private static ObjectId id(final int n) {
+        return ObjectId.fromString(String.format("%040x", n));
+    }
+
+    @Test
+    public void testSingle() {
+        final OffHeapEntryMapping map = new OffHeapEntryMapping(1 << 20);
+        final Entry key = Entry.of(BLOB_MODE, "Hello.java", id(1));
+        final Entry value = Entry.of(BLOB_MODE, "Hello.java", id(2));
+        assertNull(map.get(key));
+        map.put(key, value);
+        assertEquals(value, map.get(key));
+        assertTrue(map.asMap().containsKey(key));
+        assertNull(map.get(Entry.of(BLOB_MODE, "Hello.java", id(2))));
+        assertNull(map.get(Entry.of(BLOB_MODE, "World.java", id(1))));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testDirectory() {
+        final OffHeapEntryMapping map = new OffHeapEntryMapping(1 << 20);
+        final Entry key = Entry.of(TREE_MODE, "src", id(1), "a/b");
+        final Entry value = Entry.of(TREE_MODE, "src", id(2), "a/b");
+        map.put(key, value);
+        assertEquals(value, map.get(key));
+        assertEquals("a/b", map.get(key).stream().findFirst().orElseThrow().directory);
+        assertNull(map.get(Entry.of(TREE_MODE, "src", id(1))));
+    }
+
+    @Test
+    public void testEmptyAndMultiple() {
+        final OffHeapEntryMapping map = new OffHeapEntryMapping(1 << 20);
+        final Entry removed = Entry.of(BLOB_MODE, "a", id(1));
+        final Entry split = Entry.of(BLOB_MODE, "b", id(2));
+        final AnyColdEntry parts = AnyColdEntry.set(Entry.of(BLOB_MODE, "b1", id(3)), Entry.of(BLOB_MODE, "b2", id(4)));
+        map.put(removed, AnyColdEntry.empty());
+        map.put(split, parts);
+        assertEquals(AnyColdEntry.empty(), map.get(removed));
+        assertEquals(parts, map.get(split));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testIteration() {
+        final OffHeapEntryMapping map = new OffHeapEntryMapping(1 << 20);
+        final Map<Entry, AnyColdEntry> expected = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            expected.put(Entry.of(BLOB_MODE, "f" + i, id(i)), Entry.of(BLOB_MODE, "g" + i, id(i + 100)));
+        }
+        expected.put(Entry.of(BLOB_MODE, "a", id(1)), AnyColdEntry.empty());
+        expected.put(Entry.of(BLOB_MODE, "b", id(2)), AnyColdEntry.set(Entry.of(BLOB_MODE, "b1", id(3)), Entry.of(BLOB_MODE, "b2", id(4))));
+        expected.forEach(map::put);
+        assertEquals(expected, new HashMap<>(map.asMap()));
+    }
+
+    @Test
+    public void testEviction() {
+        final OffHeapEntryMapping map = new OffHeapEntryMapping(OffHeapEntryMapping.SLOT_SIZE * OffHeapEntryMapping.WAYS * 4L);
+        final int n = 1000;
+        for (int i = 0; i < n; i++) {
+            map.put(Entry.of(BLOB_MODE, "f" + i, id(i)), Entry.of(BLOB_MODE, "f" + i, id(i + n)));
+        }
+        assertEquals(map.capacity(), map.size());
+        // the last one is always retained
+        assertEquals(Entry.of(BLOB_MODE, "f" + (n - 1), id(2 * n - 1)), map.get(Entry.of(BLOB_MODE, "f" + (n - 1), id(n - 1))));
+    }
+}
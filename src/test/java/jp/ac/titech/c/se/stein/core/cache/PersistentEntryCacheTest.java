@@ -7,10 +7,16 @@ import jp.ac.titech.c.se.stein.Application;
 import jp.ac.titech.c.se.stein.app.Identity;
 import jp.ac.titech.c.se.stein.app.blob.HistorageViaJDT;
 import jp.ac.titech.c.se.stein.rewriter.BlobTranslator;
+import jp.ac.titech.c.se.stein.rewriter.Fingerprint;
 import jp.ac.titech.c.se.stein.rewriter.RepositoryRewriter;
 import jp.ac.titech.c.se.stein.testing.TestRepo;
+import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.h2.mvstore.MVStore;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -118,4 +124,127 @@ public class PersistentEntryCacheTest {
                     "Second run should have 100% cache hit (0 translations), but got " + count.get());
         }
     }
+
+    @Test
+    public void testBinaryRoundTrip() {
+        final int mode = FileMode.REGULAR_FILE.getBits();
+        final Entry plain = Entry.of(mode, "Hello.java", ObjectId.fromString("0123456789abcdef0123456789abcdef01234567"));
+        final Entry nested = Entry.of(FileMode.TREE.getBits(), "\u30c6\u30b9\u30c8", ObjectId.zeroId(), "a/b");
+        final Entry emptyDir = Entry.of(mode, "x", ObjectId.zeroId(), "");
+        final AnyColdEntry parts = AnyColdEntry.set(plain, nested);
+
+        try (RepositoryAccess target = TestRepo.create(true)) {
+            try (PersistentEntryCache cache = new PersistentEntryCache(target.repo, 1 << 20)) {
+                assertTrue(cache.isInitial());
+                final var map = cache.getEntryMapping();
+                map.put(plain, nested);
+                map.put(nested, AnyColdEntry.empty());
+                map.put(emptyDir, parts);
+            }
+            try (PersistentEntryCache cache = new PersistentEntryCache(target.repo, 1 << 20)) {
+                assertFalse(cache.isInitial());
+                final var map = cache.getEntryMapping();
+                assertEquals(nested, map.get(plain));
+                assertEquals(AnyColdEntry.empty(), map.get(nested));
+                assertEquals(parts, map.get(emptyDir));
+                assertNull(map.get(Entry.of(mode, "x", ObjectId.zeroId())));
+            }
+        }
+    }
+
+    @Test
+    public void testStaleFormatIsRebuilt() {
+        try (RepositoryAccess target = TestRepo.create(true)) {
+            final File file = new File(target.repo.getDirectory(), "cache.mv.db");
+            final MVStore old = MVStore.open(file.toString());
+            old.openMap("entries").put("stale", "value");
+            old.close();
+
+            try (PersistentEntryCache cache = new PersistentEntryCache(target.repo, 1 << 20)) {
+                assertTrue(cache.isInitial());
+                assertTrue(cache.getEntryMapping().isEmpty());
+            }
+            try (PersistentEntryCache cache = new PersistentEntryCache(target.repo, 1 << 20)) {
+                assertFalse(cache.isInitial());
+            }
+        }
+    }
+
+    @Test
+    public void testNamespaces() {
+        final Entry key = Entry.of(FileMode.REGULAR_FILE.getBits(), "a", ObjectId.zeroId());
+        final Entry value = Entry.of(FileMode.REGULAR_FILE.getBits(), "b", ObjectId.zeroId());
+        try (RepositoryAccess target = TestRepo.create(true)) {
+            try (PersistentEntryCache cache = new PersistentEntryCache(target.repo, 1 << 20, "x", "config x")) {
+                assertTrue(cache.isInitial());
+                cache.getEntryMapping().put(key, value);
+            }
+            try (PersistentEntryCache cache = new PersistentEntryCache(target.repo, 1 << 20, "y", "config y")) {
+                assertTrue(cache.isInitial());
+                assertNull(cache.getEntryMapping().get(key));
+            }
+            try (PersistentEntryCache cache = new PersistentEntryCache(target.repo, 1 << 20, "x", "config x")) {
+                assertFalse(cache.isInitial());
+                assertEquals(value, cache.getEntryMapping().get(key));
+            }
+        }
+    }
+
+    @Test
+    public void testUnflushedNamespaceIsCleared() {
+        final Entry key = Entry.of(FileMode.REGULAR_FILE.getBits(), "a", ObjectId.zeroId());
+        final Entry value = Entry.of(FileMode.REGULAR_FILE.getBits(), "b", ObjectId.zeroId());
+        try (RepositoryAccess target = TestRepo.create(true)) {
+            try (PersistentEntryCache cache = new PersistentEntryCache(target.repo, 1 << 20)) {
+                cache.markUnflushed();
+                cache.getEntryMapping().put(key, value);
+                cache.markFlushed();
+            }
+            try (PersistentEntryCache cache = new PersistentEntryCache(target.repo, 1 << 20)) {
+                assertFalse(cache.isInitial());
+                assertEquals(value, cache.getEntryMapping().get(key));
+                // the run ends without flushing
+                cache.markUnflushed();
+            }
+            try (PersistentEntryCache cache = new PersistentEntryCache(target.repo, 1 << 20)) {
+                assertTrue(cache.isInitial());
+                assertNull(cache.getEntryMapping().get(key));
+            }
+        }
+    }
+
+    @Test
+    public void testPersistedMappings() {
+        final AtomicInteger tags = new AtomicInteger();
+        final AtomicInteger trees = new AtomicInteger();
+        final RepositoryRewriter counting = new Identity() {
+            @Override
+            protected ObjectId rewriteTag(final org.eclipse.jgit.revwalk.RevTag tag, final Context c) {
+                tags.incrementAndGet();
+                return super.rewriteTag(tag, c);
+            }
+
+            @Override
+            protected AnyColdEntry rewriteEntry(final Entry entry, final Context c) {
+                trees.incrementAndGet();
+                return super.rewriteEntry(entry, c);
+            }
+        };
+        try (RepositoryAccess target = TestRepo.create(true)) {
+            rewriteWithCache(counting, target.repo);
+            assertEquals(1, tags.get());
+            try (PersistentEntryCache cache = new PersistentEntryCache(target.repo, 1 << 20, Fingerprint.of(counting), "")) {
+                assertEquals(3, cache.getRootTreeMapping().size());
+                assertEquals(1, cache.getTagMapping().size());
+                assertFalse(cache.getRefEntryMapping().isEmpty());
+            }
+
+            tags.set(0);
+            trees.set(0);
+            rewriteWithCache(counting, target.repo);
+            assertEquals(0, tags.get());
+            assertEquals(0, trees.get());
+            assertEquals(source.getRef("refs/tags/v1.0").getObjectId(), target.getRef("refs/tags/v1.0").getObjectId());
+        }
+    }
 }
@@ -0,0 +1,125 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import jp.ac.titech.c.se.stein.Application;
+import jp.ac.titech.c.se.stein.app.blob.FilterBlob;
+import jp.ac.titech.c.se.stein.app.blob.HistorageViaJDT;
+import jp.ac.titech.c.se.stein.core.Context;
+import jp.ac.titech.c.se.stein.core.RepositoryAccess;
+import jp.ac.titech.c.se.stein.entry.AnyHotEntry;
+import jp.ac.titech.c.se.stein.entry.BlobEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import jp.ac.titech.c.se.stein.entry.HotEntry;
+import jp.ac.titech.c.se.stein.rewriter.BlobTranslator;
+import jp.ac.titech.c.se.stein.rewriter.RepositoryRewriter;
+import jp.ac.titech.c.se.stein.testing.TestRepo;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SharedTranslationCacheTest {
+    static RepositoryAccess source;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        source = TestRepo.createSample(true);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        source.close();
+    }
+
+    private List<RevCommit> rewriteShared(final RepositoryRewriter rewriter, final Path dir) {
+        final Application.Config config = new Application.Config();
+        config.sharedCacheDirectory = dir.toFile();
+        try (RepositoryAccess target = TestRepo.create(true)) {
+            rewriter.setConfig(config);
+            rewriter.initialize(source.repo, target.repo);
+            rewriter.rewrite(Context.init());
+            return target.collectCommits("refs/heads/main");
+        }
+    }
+
+    @Test
+    public void testRoundTrip(@TempDir final Path dir) throws IOException {
+        final Entry key = Entry.of(FileMode.REGULAR_FILE.getBits(), "A.java", ObjectId.zeroId());
+        final AnyHotEntry result = AnyHotEntry.set(
+                HotEntry.of(key, source),
+                HotEntry.ofTree("A", HotEntry.ofBlob("m.mjava", "body"), HotEntry.ofTree("B")));
+        try (SharedTranslationCache cache = new SharedTranslationCache(dir, "x")) {
+            assertNull(cache.get(key, source));
+            cache.put(key, result);
+            assertTrue(cache.contains(key));
+        }
+        try (SharedTranslationCache cache = new SharedTranslationCache(dir, "x")) {
+            final AnyHotEntry restored = cache.get(key, source);
+            assertEquals(2, restored.size());
+            final List<? extends HotEntry> entries = restored.stream().toList();
+            assertInstanceOf(BlobEntry.SourceBlob.class, entries.get(0));
+            assertEquals("A/[m.mjava [new(4):100644], B/[]]", entries.get(1).toString());
+        }
+        try (SharedTranslationCache cache = new SharedTranslationCache(dir, "y")) {
+            assertFalse(cache.contains(key));
+        }
+    }
+
+    @Test
+    public void testSharedAcrossTargets(@TempDir final Path dir) {
+        final List<RevCommit> expected = rewriteShared(new HistorageViaJDT().toRewriter(), dir);
+        final AtomicInteger count = new AtomicInteger();
+        final BlobTranslator historage = new HistorageViaJDT() {
+            @Override
+            public AnyHotEntry rewriteBlobEntry(final BlobEntry entry, final Context c) {
+                count.incrementAndGet();
+                return super.rewriteBlobEntry(entry, c);
+            }
+        };
+        // a subclass has another fingerprint, so that it starts with an empty namespace
+        rewriteShared(historage.toRewriter(), dir);
+        assertTrue(count.get() > 0);
+        count.set(0);
+        final List<RevCommit> actual = rewriteShared(historage.toRewriter(), dir);
+        assertEquals(0, count.get());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTree(), actual.get(i).getTree());
+        }
+    }
+
+    @Test
+    public void testFilterOptionsIsolated(@TempDir final Path dir) {
+        // the filters differ only in options declared on setters of the NameFilter mixin
+        final List<RevCommit> java = rewriteShared(filter("--pattern=*.java").toRewriter(), dir);
+        final List<RevCommit> readme = rewriteShared(filter("--pattern=*.md").toRewriter(), dir);
+        final List<RevCommit> inverted = rewriteShared(filter("--pattern=*.md", "--invert-match").toRewriter(), dir);
+        for (int i = 0; i < java.size(); i++) {
+            assertNotEquals(java.get(i).getTree(), readme.get(i).getTree());
+            assertNotEquals(readme.get(i).getTree(), inverted.get(i).getTree());
+        }
+        // the results are the same as those without the shared cache
+        try (RepositoryAccess expected = TestRepo.rewrite(source, filter("--pattern=*.md"))) {
+            final List<RevCommit> commits = expected.collectCommits("refs/heads/main");
+            for (int i = 0; i < commits.size(); i++) {
+                assertEquals(commits.get(i).getTree(), readme.get(i).getTree());
+            }
+        }
+    }
+
+    private static FilterBlob filter(final String... args) {
+        final FilterBlob result = new FilterBlob();
+        new CommandLine(result).parseArgs(args);
+        return result;
+    }
+}
@@ -0,0 +1,39 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TieredEntryMappingTest {
+    static final int BLOB_MODE = FileMode.REGULAR_FILE.getBits();
+
+    static final Entry KEY = Entry.of(BLOB_MODE, "a", ObjectId.fromString("0000000000000000000000000000000000000001"));
+    static final Entry VALUE = Entry.of(BLOB_MODE, "a", ObjectId.fromString("0000000000000000000000000000000000000002"));
+
+    @Test
+    public void testWriteToBothTiers() {
+        final Map<Entry, AnyColdEntry> l1 = new HashMap<>(), l2 = new HashMap<>();
+        final TieredEntryMapping mapping = new TieredEntryMapping(l1, l2);
+        mapping.put(KEY, VALUE);
+        assertEquals(VALUE, l1.get(KEY));
+        assertEquals(VALUE, l2.get(KEY));
+        assertEquals(VALUE, mapping.get(KEY));
+    }
+
+    @Test
+    public void testPromoteFromL2() {
+        final Map<Entry, AnyColdEntry> l1 = new HashMap<>(), l2 = new HashMap<>();
+        l2.put(KEY, VALUE);
+        final TieredEntryMapping mapping = new TieredEntryMapping(l1, l2);
+        assertTrue(mapping.asMap().containsKey(KEY));
+        assertEquals(VALUE, l1.get(KEY));
+        assertEquals(1, mapping.size());
+    }
+}
@@ -0,0 +1,107 @@
+package jp.ac.titech.c.se.stein.core.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteBehindEntryMappingTest {
+    static final int BLOB_MODE = FileMode.REGULAR_FILE.getBits();
+
+    private static Entry entry(final int n) {
+        return Entry.of(BLOB_MODE, "f" + n, ObjectId.fromString(String.format("%040x", n)));
+    }
+
+    @Test
+    public void testReadYourWrites() {
+        final Map<Entry, AnyColdEntry> target = new ConcurrentHashMap<>();
+        final WriteBehindEntryMapping mapping = new WriteBehindEntryMapping(target);
+        mapping.put(entry(1), entry(2));
+        assertEquals(entry(2), mapping.get(entry(1)));
+        mapping.put(entry(1), AnyColdEntry.empty());
+        assertEquals(AnyColdEntry.empty(), mapping.get(entry(1)));
+        mapping.close();
+        assertEquals(AnyColdEntry.empty(), target.get(entry(1)));
+        assertEquals(1, mapping.size());
+    }
+
+    @Test
+    public void testConcurrentWriters() {
+        final Map<Entry, AnyColdEntry> target = new ConcurrentHashMap<>();
+        final int n = 4 * WriteBehindEntryMapping.MAX_PENDING;
+        try (WriteBehindEntryMapping mapping = new WriteBehindEntryMapping(target)) {
+            IntStream.range(0, n).parallel().forEach(i -> {
+                mapping.put(entry(i), entry(i + n));
+                assertEquals(entry(i + n), mapping.get(entry(i)));
+            });
+        }
+        assertEquals(n, target.size());
+        assertEquals(entry(2 * n - 1), target.get(entry(n - 1)));
+    }
+
+    @Test
+    public void testIteration() {
+        final Map<Entry, AnyColdEntry> target = new ConcurrentHashMap<>();
+        target.put(entry(1), entry(2));
+        try (WriteBehindEntryMapping mapping = new WriteBehindEntryMapping(target)) {
+            mapping.put(entry(1), entry(3));
+            mapping.put(entry(4), AnyColdEntry.empty());
+            assertEquals(Map.of(entry(1), entry(3), entry(4), AnyColdEntry.empty()), new HashMap<>(mapping.asMap()));
+        }
+    }
+
+    @Test
+    public void testWriterFailure() {
+        final Map<Entry, AnyColdEntry> target = new ConcurrentHashMap<>() {
+            // inside a Map, the simple name Entry denotes Map.Entry
+            @Override
+            public AnyColdEntry put(final jp.ac.titech.c.se.stein.entry.Entry key, final AnyColdEntry value) {
+                throw new IllegalArgumentException("broken store");
+            }
+        };
+        final WriteBehindEntryMapping mapping = new WriteBehindEntryMapping(target);
+        mapping.put(entry(1), entry(2));
+        final IllegalStateException e = assertThrows(IllegalStateException.class, () -> {
+            // the writer fails on the first write; an insertion after that is rejected
+            for (int i = 0; i < 2 * WriteBehindEntryMapping.MAX_PENDING; i++) {
+                mapping.put(entry(i), entry(i));
+            }
+        });
+        assertInstanceOf(IllegalArgumentException.class, e.getCause());
+        assertThrows(IllegalStateException.class, mapping::close);
+    }
+
+    @Test
+    public void testPutRacingWithClose() throws InterruptedException {
+        final Map<Entry, AnyColdEntry> target = new ConcurrentHashMap<>();
+        final WriteBehindEntryMapping mapping = new WriteBehindEntryMapping(target);
+        final AtomicInteger accepted = new AtomicInteger();
+        final Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; ; i++) {
+                    mapping.put(entry(i), entry(i));
+                    accepted.incrementAndGet();
+                }
+            } catch (final IllegalStateException e) {
+                // closed
+            }
+        });
+        producer.start();
+        while (accepted.get() < 1000) {
+            Thread.onSpinWait();
+        }
+        mapping.close();
+        producer.join();
+        // every accepted insertion has been written
+        assertEquals(accepted.get(), target.size());
+    }
+}
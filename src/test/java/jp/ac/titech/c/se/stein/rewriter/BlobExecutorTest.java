@@ -0,0 +1,56 @@
+package jp.ac.titech.c.se.stein.rewriter;
+
+import jp.ac.titech.c.se.stein.core.Try;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlobExecutorTest {
+    @Test
+    public void testCancelledBeforeStart() throws InterruptedException {
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        try (BlobExecutor executor = new BlobExecutor(1, false)) {
+            // occupies the only thread
+            final CompletableFuture<Integer> first = new CompletableFuture<>();
+            executor.run(first, () -> {
+                Try.run(() -> blocked.await());
+                return count.incrementAndGet();
+            });
+            final CompletableFuture<Integer> second = new CompletableFuture<>();
+            executor.run(second, count::incrementAndGet);
+            second.cancel(false);
+            blocked.countDown();
+            assertEquals(1, first.join());
+        }
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    public void testCloseWaitsForTranslations() {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        try (BlobExecutor executor = new BlobExecutor(2, false)) {
+            executor.run(future, () -> {
+                Try.run(() -> Thread.sleep(200));
+                return "done";
+            });
+        }
+        assertTrue(future.isDone());
+        assertEquals("done", future.join());
+    }
+
+    @Test
+    public void testFailure() {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        try (BlobExecutor executor = new BlobExecutor(1, true)) {
+            executor.run(future, () -> {
+                throw new IllegalStateException("failed");
+            });
+        }
+        assertInstanceOf(IllegalStateException.class, assertThrows(Exception.class, future::join).getCause());
+    }
+}
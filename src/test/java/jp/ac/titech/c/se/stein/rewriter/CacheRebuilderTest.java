@@ -0,0 +1,72 @@
+package jp.ac.titech.c.se.stein.rewriter;
+
+import jp.ac.titech.c.se.stein.Application;
+import jp.ac.titech.c.se.stein.core.Context;
+import jp.ac.titech.c.se.stein.core.RefEntry;
+import jp.ac.titech.c.se.stein.core.RepositoryAccess;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import jp.ac.titech.c.se.stein.testing.TestRepo;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheRebuilderTest {
+    /**
+     * Appends a commit adding a file to the tree of the tip of main.
+     */
+    private static void appendCommit(final RepositoryAccess ra) throws IOException {
+        final RevCommit tip = ra.getHead("refs/heads/main");
+        try (final ObjectInserter inserter = ra.repo.newObjectInserter()) {
+            final Context c = Context.init().with(Context.Key.inserter, inserter);
+            final List<Entry> entries = new ArrayList<>(ra.readTree(tip.getTree().getId(), null));
+            entries.add(Entry.of(FileMode.REGULAR_FILE.getBits(), "NEW.txt", ra.writeBlob("new".getBytes(StandardCharsets.UTF_8), c)));
+            final ObjectId commit = ra.writeCommit(new ObjectId[]{tip.getId()}, ra.writeTree(entries, c),
+                    tip.getAuthorIdent(), tip.getCommitterIdent(), "add a file", c);
+            inserter.flush();
+            ra.applyRefUpdate(new RefEntry("refs/heads/main", commit));
+        }
+    }
+
+    private static int rewriteIncrementally(final boolean isRebuilding) throws IOException {
+        final AtomicInteger count = new AtomicInteger();
+        final BlobTranslator upper = (entry, c) -> {
+            count.incrementAndGet();
+            return entry.update(entry.getContent().toUpperCase());
+        };
+        try (RepositoryAccess source = TestRepo.createSample(true); RepositoryAccess target = TestRepo.create(true)) {
+            TestRepo.rewrite(source, target, upper);
+            appendCommit(source);
+
+            count.set(0);
+            final RepositoryRewriter rewriter = upper.toRewriter();
+            final Application.Config config = new Application.Config();
+            config.isRebuildingCache = isRebuilding;
+            rewriter.setConfig(config);
+            rewriter.initialize(source.repo, target.repo);
+            rewriter.rewrite(Context.init());
+
+            final List<RevCommit> commits = target.collectCommits("refs/heads/main");
+            assertEquals(4, commits.size());
+            assertEquals(target.readTree(commits.get(2).getTree().getId(), null).size() + 1,
+                    target.readTree(commits.get(3).getTree().getId(), null).size());
+        }
+        return count.get();
+    }
+
+    @Test
+    public void testRebuild() throws IOException {
+        assertTrue(rewriteIncrementally(false) > 1);
+        // only the added file is translated
+        assertEquals(1, rewriteIncrementally(true));
+    }
+}
@@ -0,0 +1,78 @@
+package jp.ac.titech.c.se.stein.rewriter;
+
+import jp.ac.titech.c.se.stein.core.CommitTable;
+import jp.ac.titech.c.se.stein.core.RepositoryAccess;
+import jp.ac.titech.c.se.stein.core.Try;
+import jp.ac.titech.c.se.stein.jgit.RevWalk;
+import jp.ac.titech.c.se.stein.testing.TestRepo;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommitPartitionerTest {
+    static RepositoryAccess branching;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        branching = TestRepo.createBranching();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        branching.close();
+    }
+
+    private CommitTable build() {
+        final RevWalk walk = branching.walk();
+        Try.io(() -> walk.memoMarkStart(branching.getRef("refs/heads/main").getObjectId()));
+        return CommitTable.of(walk);
+    }
+
+    @Test
+    public void testPartition() {
+        try (CommitTable table = build()) {
+            for (final int maxLength : List.of(1, 2, 3, Integer.MAX_VALUE)) {
+                final List<List<RevCommit>> segments = CommitPartitioner.partition(table, maxLength);
+                final Set<ObjectId> covered = new HashSet<>();
+                for (final List<RevCommit> segment : segments) {
+                    assertFalse(segment.isEmpty());
+                    assertTrue(segment.size() <= maxLength, "maxLength: " + maxLength);
+                    for (int i = 1; i < segment.size(); i++) {
+                        // each commit continues the first-parent chain of the previous one
+                        assertEquals(table.indexOf(segment.get(i - 1)), table.getFirstParent(table.indexOf(segment.get(i))));
+                    }
+                    for (final RevCommit commit : segment) {
+                        assertTrue(covered.add(commit.getId()), commit.name());
+                    }
+                }
+                assertEquals(table.size(), covered.size());
+            }
+        }
+    }
+
+    @Test
+    public void testChains() {
+        try (CommitTable table = build()) {
+            // without a length limit, a new segment starts only at the root, at the other branches
+            // forking from the root, and at one of the two children of the octopus merge
+            assertEquals(TestRepo.BRANCHES + 1, CommitPartitioner.partition(table, Integer.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    public void testMaxLength() {
+        assertEquals(1, CommitPartitioner.maxLength(0, 4));
+        assertEquals(1, CommitPartitioner.maxLength(32, 4));
+        assertEquals(2, CommitPartitioner.maxLength(33, 4));
+        assertEquals(13, CommitPartitioner.maxLength(100, 1));
+    }
+}
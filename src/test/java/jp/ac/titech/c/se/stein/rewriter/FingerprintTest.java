@@ -0,0 +1,63 @@
+package jp.ac.titech.c.se.stein.rewriter;
+
+import jp.ac.titech.c.se.stein.app.blob.ConvertBlob;
+import jp.ac.titech.c.se.stein.app.blob.Cregit;
+import jp.ac.titech.c.se.stein.app.blob.HistorageViaJDT;
+import jp.ac.titech.c.se.stein.app.blob.TokenizeViaJDT;
+import org.junit.jupiter.api.Test;
+import picocli.CommandLine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FingerprintTest {
+    private static <T> T parse(final T command, final String... args) {
+        new CommandLine(command).parseArgs(args);
+        return command;
+    }
+
+    @Test
+    public void testSameConfiguration() {
+        assertEquals(Fingerprint.of(new HistorageViaJDT()), Fingerprint.of(new HistorageViaJDT()));
+        assertEquals(Fingerprint.of(new HistorageViaJDT().toRewriter()), Fingerprint.of(new HistorageViaJDT().toRewriter()));
+        assertEquals(Fingerprint.of(new HistorageViaJDT()), Fingerprint.of(parse(new HistorageViaJDT(), "--original")));
+    }
+
+    @Test
+    public void testOptions() {
+        final String defaults = Fingerprint.of(new HistorageViaJDT());
+        assertNotEquals(defaults, Fingerprint.of(parse(new HistorageViaJDT(), "--no-original")));
+        assertNotEquals(defaults, Fingerprint.of(parse(new HistorageViaJDT(), "--class-ext=.c")));
+        assertTrue(Fingerprint.describe(new HistorageViaJDT()).contains("--no-original=true"));
+    }
+
+    @Test
+    public void testSetterOptions() {
+        final String java = Fingerprint.of(parse(new Cregit(), "--pattern=*.java"));
+        final String cpp = Fingerprint.of(parse(new Cregit(), "--pattern=*.cpp"));
+        assertNotEquals(java, cpp);
+        assertNotEquals(cpp, Fingerprint.of(parse(new Cregit(), "--pattern=*.cpp", "--ignore-case")));
+        assertNotEquals(cpp, Fingerprint.of(parse(new Cregit(), "--pattern=*.cpp", "--invert-match")));
+        assertEquals(cpp, Fingerprint.of(parse(new Cregit(), "--pattern=*.cpp")));
+        // a language option also sets the patterns
+        assertNotEquals(Fingerprint.of(new Cregit()), Fingerprint.of(parse(new Cregit(), "--lang=C")));
+    }
+
+    @Test
+    public void testArgGroups() {
+        final String a = Fingerprint.of(parse(new ConvertBlob(), "--cmd=a"));
+        assertEquals(a, Fingerprint.of(parse(new ConvertBlob(), "--cmd=a")));
+        assertNotEquals(a, Fingerprint.of(parse(new ConvertBlob(), "--cmd=b")));
+        assertNotEquals(a, Fingerprint.of(parse(new ConvertBlob(), "--cmd=a", "--pattern=*.java")));
+    }
+
+    @Test
+    public void testComposite() {
+        final String a = Fingerprint.of(BlobTranslator.composite(new HistorageViaJDT(), new TokenizeViaJDT()));
+        final String b = Fingerprint.of(BlobTranslator.composite(new TokenizeViaJDT(), new HistorageViaJDT()));
+        final String c = Fingerprint.of(BlobTranslator.composite(parse(new HistorageViaJDT(), "--no-original"), new TokenizeViaJDT()));
+        assertNotEquals(a, b);
+        assertNotEquals(a, c);
+        assertNotEquals(Fingerprint.of(CommitTranslator.fromBlob(new HistorageViaJDT())),
+                Fingerprint.of(CommitTranslator.fromBlob(new TokenizeViaJDT())));
+    }
+}
@@ -0,0 +1,362 @@
+package jp.ac.titech.c.se.stein.rewriter;
+
+import jp.ac.titech.c.se.stein.Application;
+import jp.ac.titech.c.se.stein.app.blob.HistorageViaJDT;
+import jp.ac.titech.c.se.stein.core.Context;
+import jp.ac.titech.c.se.stein.core.RepositoryAccess;
+import jp.ac.titech.c.se.stein.entry.AnyColdEntry;
+import jp.ac.titech.c.se.stein.entry.AnyHotEntry;
+import jp.ac.titech.c.se.stein.entry.BlobEntry;
+import jp.ac.titech.c.se.stein.entry.Entry;
+import jp.ac.titech.c.se.stein.entry.TreeEntry;
+import jp.ac.titech.c.se.stein.testing.TestRepo;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelRewritingTest {
+    static RepositoryAccess source, expected, branching, expectedBranching;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        source = TestRepo.createSample();
+        expected = TestRepo.rewrite(source, new HistorageViaJDT());
+        branching = TestRepo.createBranching();
+        expectedBranching = TestRepo.rewrite(branching, new HistorageViaJDT());
+    }
+
+    @AfterAll
+    static void tearDown() {
+        expectedBranching.close();
+        branching.close();
+        expected.close();
+        source.close();
+    }
+
+    private RepositoryAccess rewrite(final Consumer<Application.Config> configurer) {
+        return rewrite(source, new HistorageViaJDT().toRewriter(), configurer);
+    }
+
+    private static RepositoryAccess rewrite(final RepositoryAccess source, final RepositoryRewriter rewriter, final Consumer<Application.Config> configurer) {
+        final Application.Config config = new Application.Config();
+        config.nthreads = 4;
+        configurer.accept(config);
+        final RepositoryAccess target = TestRepo.create();
+        rewriter.setConfig(config);
+        rewriter.initialize(source.repo, target.repo);
+        rewriter.rewrite(Context.init());
+        return target;
+    }
+
+    /**
+     * Asserts that the rewritten branching history is the same as that of the sequential rewriting.
+     */
+    private static void assertSameBranching(final RepositoryAccess expected, final RepositoryAccess actual) {
+        for (final String ref : List.of("refs/heads/main", "refs/heads/topic")) {
+            assertEquals(expected.getRef(ref).getObjectId(), actual.getRef(ref).getObjectId(), ref);
+        }
+        assertEquals(expected.collectCommits("refs/heads/main").size(), actual.collectCommits("refs/heads/main").size());
+    }
+
+    private void assertSameCommits(final RepositoryAccess actual) {
+        final List<RevCommit> expectedCommits = expected.collectCommits("refs/heads/main");
+        final List<RevCommit> actualCommits = actual.collectCommits("refs/heads/main");
+        assertEquals(expectedCommits.size(), actualCommits.size());
+        for (int i = 0; i < expectedCommits.size(); i++) {
+            assertEquals(expectedCommits.get(i).getId(), actualCommits.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testWritingPacks() {
+        final Application.Config config = new Application.Config();
+        config.nthreads = 4;
+        config.isWritingCommitsInParallel = true;
+        config.packSizeLimit = 4096;
+        try (RepositoryAccess target = TestRepo.create(true)) {
+            final RepositoryRewriter rewriter = new HistorageViaJDT().toRewriter();
+            rewriter.setConfig(config);
+            rewriter.initialize(source.repo, target.repo);
+            rewriter.rewrite(Context.init());
+            assertSameCommits(target);
+
+            final ObjectDirectory odb = ((FileRepository) target.repo).getObjectDatabase();
+            assertTrue(odb.getPacks().size() > 1);
+            for (final RevCommit commit : target.collectCommits("refs/heads/main")) {
+                assertFalse(odb.fileFor(commit.getId()).exists());
+                assertFalse(odb.fileFor(commit.getTree().getId()).exists());
+            }
+        }
+    }
+
+    @Test
+    public void testTwoPasses() {
+        try (RepositoryAccess result = rewrite(config -> {})) {
+            assertSameCommits(result);
+        }
+    }
+
+    @Test
+    public void testPipeline() {
+        try (RepositoryAccess result = rewrite(config -> config.isPipelining = true)) {
+            assertSameCommits(result);
+        }
+    }
+
+    @Test
+    public void testEntriesTranslatedOnce() {
+        final Set<Entry> seen = ConcurrentHashMap.newKeySet();
+        final RepositoryRewriter counting = new RepositoryRewriter() {
+            @Override
+            protected AnyHotEntry rewriteBlobEntry(final BlobEntry entry, final Context c) {
+                assertTrue(seen.add(c.getEntry()), c.getEntry().toString());
+                return entry;
+            }
+        };
+        try (RepositoryAccess result = rewrite(branching, counting, config -> config.isWritingCommitsInParallel = true)) {
+            assertSameBranching(branching, result);
+        }
+        // every distinct blob entry of the history is translated exactly once
+        final Set<Entry> expected = new HashSet<>();
+        for (final RevCommit commit : branching.collectCommits("refs/heads/main")) {
+            collectBlobs(commit.getTree().getId(), expected);
+        }
+        assertEquals(expected, seen);
+    }
+
+    private static void collectBlobs(final ObjectId treeId, final Set<Entry> result) {
+        for (final Entry e : branching.readTree(treeId, null)) {
+            if (e.isTree()) {
+                collectBlobs(e.id, result);
+            } else {
+                result.add(e);
+            }
+        }
+    }
+
+    @Test
+    public void testWideTrees() {
+        // each root tree of the branching history has 16 subtrees, which are forked across the workers
+        try (RepositoryAccess result = rewrite(branching, new HistorageViaJDT().toRewriter(), config -> {})) {
+            assertSameBranching(expectedBranching, result);
+        }
+        try (RepositoryAccess result = rewrite(branching, new HistorageViaJDT().toRewriter(), config -> {
+            config.isPipelining = true;
+            config.isWritingCommitsInParallel = true;
+        })) {
+            assertSameBranching(expectedBranching, result);
+        }
+    }
+
+    @Test
+    public void testDiffTreesInParallel() {
+        final Set<ObjectId> seen = ConcurrentHashMap.newKeySet();
+        final RepositoryRewriter counting = new RepositoryRewriter() {
+            @Override
+            protected AnyColdEntry rewriteTreeEntry(final TreeEntry entry, final EntryResolver resolver, final Context c) {
+                assertTrue(seen.add(entry.getId()), entry.getId().name());
+                return super.rewriteTreeEntry(entry, resolver, c);
+            }
+        };
+        // the identity rewriting reproduces the source
+        try (RepositoryAccess result = rewrite(branching, counting, config -> config.isDiffingTrees = true)) {
+            assertSameBranching(branching, result);
+        }
+    }
+
+    @Test
+    public void testDiffTreesWithEntryOverride() {
+        final Set<String> dropped = ConcurrentHashMap.newKeySet();
+        final Supplier<RepositoryRewriter> dropping = () -> new RepositoryRewriter() {
+            @Override
+            protected AnyColdEntry rewriteEntry(final Entry entry, final Context c) {
+                if (entry.isTree() && entry.name.equals("d01")) {
+                    dropped.add(entry.name);
+                    return AnyColdEntry.empty();
+                }
+                return super.rewriteEntry(entry, c);
+            }
+        };
+        try (RepositoryAccess expected = rewrite(branching, dropping.get(), config -> config.nthreads = 1)) {
+            for (final int nthreads : List.of(1, 4)) {
+                dropped.clear();
+                try (RepositoryAccess result = rewrite(branching, dropping.get(), config -> {
+                    config.nthreads = nthreads;
+                    config.isDiffingTrees = true;
+                })) {
+                    // the override takes effect on the trees rewritten against the snapshots as well
+                    assertSameBranching(expected, result);
+                }
+                assertFalse(dropped.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void testReentrantResolution() {
+        final Set<ObjectId> reentered = ConcurrentHashMap.newKeySet();
+        final RepositoryRewriter reentering = new RepositoryRewriter() {
+            @Override
+            protected AnyColdEntry rewriteTreeEntry(final TreeEntry entry, final EntryResolver resolver, final Context c) {
+                if (!entry.isRoot() && reentered.add(entry.getId())) {
+                    // resolves the entry being rewritten on the same thread, as a task run while joining forks may do
+                    entryResolver.resolve(c.getEntry(), c);
+                }
+                return super.rewriteTreeEntry(entry, resolver, c);
+            }
+        };
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            try (RepositoryAccess result = rewrite(branching, reentering, config -> {})) {
+                assertSameBranching(branching, result);
+            }
+        });
+        assertFalse(reentered.isEmpty());
+    }
+
+    @Test
+    public void testPipelineFailure() {
+        final AtomicReference<IllegalStateException> thrown = new AtomicReference<>();
+        final RepositoryRewriter failing = new RepositoryRewriter() {
+            @Override
+            protected AnyHotEntry rewriteBlobEntry(final BlobEntry entry, final Context c) {
+                // fails only once, so that rewriting the tree again would succeed
+                final IllegalStateException e = new IllegalStateException("failed");
+                if (thrown.compareAndSet(null, e)) {
+                    throw e;
+                }
+                return entry;
+            }
+        };
+        final IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> rewrite(branching, failing, config -> config.isPipelining = true).close());
+        // the failure of the worker itself reaches the commit writing pass
+        assertSame(thrown.get(), e);
+    }
+
+    @Test
+    public void testParallelCommits() {
+        try (RepositoryAccess result = rewrite(config -> config.isWritingCommitsInParallel = true)) {
+            assertSameCommits(result);
+        }
+    }
+
+    @Test
+    public void testParallelCommitsOnBranches() {
+        try (RepositoryAccess result = rewrite(branching, new HistorageViaJDT().toRewriter(), config -> config.isWritingCommitsInParallel = true)) {
+            assertSameBranching(expectedBranching, result);
+        }
+    }
+
+    @Test
+    public void testParallelCommitsOnce() {
+        for (int i = 0; i < 10; i++) {
+            final Set<ObjectId> seen = ConcurrentHashMap.newKeySet();
+            final RepositoryRewriter counting = new RepositoryRewriter() {
+                @Override
+                protected ObjectId rewriteCommit(final RevCommit commit, final Context c) {
+                    assertTrue(seen.add(commit.copy()), commit.name());
+                    return super.rewriteCommit(commit, c);
+                }
+            };
+            rewrite(branching, counting, config -> config.isWritingCommitsInParallel = true).close();
+            assertEquals(branching.collectCommits("refs/heads/main").size(), seen.size());
+        }
+    }
+
+    @Test
+    public void testParallelCommitsFailure() throws InterruptedException {
+        final AtomicInteger count = new AtomicInteger();
+        final RepositoryRewriter failing = new RepositoryRewriter() {
+            @Override
+            protected String rewriteMessage(final String message, final Context c) {
+                count.incrementAndGet();
+                if (message.equals("branch 1 change 2")) {
+                    throw new StackOverflowError("failed");
+                }
+                return message;
+            }
+        };
+        // the error is rethrown unwrapped
+        final StackOverflowError e = assertThrows(StackOverflowError.class,
+                () -> rewrite(branching, failing, config -> config.isWritingCommitsInParallel = true).close());
+        assertEquals("failed", e.getMessage());
+        // no worker is running after the failure
+        final int processed = count.get();
+        Thread.sleep(100);
+        assertEquals(processed, count.get());
+    }
+
+    @Test
+    public void testParallelMetadata() {
+        try (RepositoryAccess result = rewrite(config -> config.isRewritingMetadataInParallel = true)) {
+            assertSameCommits(result);
+        }
+    }
+
+    @Test
+    public void testParallelMetadataOnBranches() {
+        try (RepositoryAccess result = rewrite(branching, new HistorageViaJDT().toRewriter(), config -> {
+            config.isRewritingMetadataInParallel = true;
+            config.isWritingCommitsInParallel = true;
+        })) {
+            assertSameBranching(expectedBranching, result);
+        }
+    }
+
+    @Test
+    public void testCommitBodies() {
+        for (final boolean isPipelining : List.of(false, true)) {
+            final Set<String> messages = ConcurrentHashMap.newKeySet();
+            final RepositoryRewriter reading = new RepositoryRewriter() {
+                @Override
+                protected AnyHotEntry rewriteBlobEntry(final BlobEntry entry, final Context c) {
+                    // the commit table does not retain bodies; they are loaded while the commit is rewritten
+                    messages.add(String.valueOf(c.getCommit().getFullMessage()));
+                    return entry;
+                }
+            };
+            try (RepositoryAccess result = rewrite(branching, reading, config -> config.isPipelining = isPipelining)) {
+                assertSameBranching(branching, result);
+            }
+            assertFalse(messages.isEmpty());
+            assertFalse(messages.contains("null"));
+        }
+    }
+
+    @Test
+    public void testBlobExecutor() {
+        try (RepositoryAccess result = rewrite(config -> {
+            config.nthreads = 1;
+            config.blobThreads = 4;
+        })) {
+            assertSameCommits(result);
+        }
+    }
+
+    @Test
+    public void testDiffTrees() {
+        try (RepositoryAccess result = rewrite(config -> {
+            config.nthreads = 1;
+            config.isDiffingTrees = true;
+        })) {
+            assertSameCommits(result);
+        }
+    }
+}
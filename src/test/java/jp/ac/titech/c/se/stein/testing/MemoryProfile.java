@@ -4,18 +4,23 @@ import jp.ac.titech.c.se.stein.Application;
 import jp.ac.titech.c.se.stein.app.Identity;
 import jp.ac.titech.c.se.stein.app.blob.HistorageViaJDT;
 import jp.ac.titech.c.se.stein.core.Context;
+import jp.ac.titech.c.se.stein.core.cache.CommitMapping;
+import jp.ac.titech.c.se.stein.core.cache.ConcurrentObjectIdMap;
+import jp.ac.titech.c.se.stein.core.cache.ObjectIdMap;
 import jp.ac.titech.c.se.stein.rewriter.RepositoryRewriter;
 import jp.ac.titech.c.se.stein.util.TemporaryFile;
 import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Profiles memory usage of entryMapping during rewrite.
+ * Profiles memory usage of entryMapping and the ObjectId mappings during rewrite.
  * Usage: java -Xmx4g -cp ... MemoryProfile <repo-path> [command]
  *   command: identity (default) or historage
  */
@@ -81,6 +86,11 @@ public class MemoryProfile {
                 System.out.printf("  Approx bytes/entry:    %d bytes%n", deltaBytes / entryMappingSize);
             }
 
+            System.out.printf("%nObjectId mappings (compact vs. HashMap<ObjectId, ObjectId>):%n");
+            profileIdMapping("commitMapping", getField(rewriter, "commitMapping"));
+            profileIdMapping("rootTreeMapping", getField(rewriter, "rootTreeMapping"));
+            profileIdMapping("tagMapping", getField(rewriter, "tagMapping"));
+
             sourceRepo.close();
             targetRepo.close();
         }
@@ -98,6 +108,59 @@ public class MemoryProfile {
         }
     }
 
+    static Map<?, ?> getField(RepositoryRewriter rewriter, String name) {
+        try {
+            Field f = RepositoryRewriter.class.getDeclaredField(name);
+            f.setAccessible(true);
+            return (Map<?, ?>) f.get(rewriter);
+        } catch (Exception e) {
+            System.err.println("Could not access " + name + ": " + e.getMessage());
+            return Map.of();
+        }
+    }
+
+    /**
+     * Prints the footprint of an ObjectId mapping and that of an equivalent HashMap,
+     * measured as the heap delta of building a copy.
+     */
+    static void profileIdMapping(String name, Map<?, ?> map) throws InterruptedException {
+        final int size = map.size();
+        final long compact;
+        if (map instanceof ObjectIdMap) {
+            compact = ((ObjectIdMap) map).getMemory();
+        } else if (map instanceof ConcurrentObjectIdMap) {
+            compact = ((ConcurrentObjectIdMap) map).getMemory();
+        } else if (map instanceof CommitMapping) {
+            compact = getCommitMappingMemory((CommitMapping) map);
+        } else {
+            compact = -1;
+        }
+
+        System.gc();
+        Thread.sleep(200);
+        final long before = usedHeap();
+        final Map<ObjectId, ObjectId> boxed = new HashMap<>();
+        map.forEach((k, v) -> boxed.put(((ObjectId) k).copy(), ((ObjectId) v).copy()));
+        System.gc();
+        Thread.sleep(200);
+        final long boxedBytes = usedHeap() - before;
+
+        System.out.printf("  %-16s %8d entries, compact: %s, HashMap: %d KB%s%n", name, size,
+                compact >= 0 ? (compact / 1024) + " KB" : "n/a", boxedBytes / 1024,
+                size > 0 ? String.format(" (%d vs. %d bytes/entry)", compact / size, boxedBytes / size) : "");
+        boxed.clear();
+    }
+
+    static long getCommitMappingMemory(CommitMapping mapping) {
+        try {
+            Field f = CommitMapping.class.getDeclaredField("map");
+            f.setAccessible(true);
+            return ((ConcurrentObjectIdMap) f.get(mapping)).getMemory();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
     static long usedHeap() {
         final Runtime rt = Runtime.getRuntime();
         return rt.totalMemory() - rt.freeMemory();
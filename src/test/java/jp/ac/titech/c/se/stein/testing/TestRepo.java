@@ -16,9 +16,13 @@ import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Factory for pre-populated test repositories and rewriting utilities.
@@ -111,6 +115,93 @@ public class TestRepo {
         return target;
     }
 
+    /**
+     * Number of directories in the root tree of {@link #createBranching()}.
+     */
+    public static final int WIDE_DIRS = 16;
+
+    /**
+     * Number of branches merged by the octopus merge of {@link #createBranching()}.
+     */
+    public static final int BRANCHES = 4;
+
+    /**
+     * Creates an in-memory repository with a branching history over a wide, shallow tree.
+     *
+     * <p>The root tree holds {@value #WIDE_DIRS} directories {@code d00}, {@code d01}, ...,
+     * each with two Java files. From the root commit, {@value #BRANCHES} branches of three
+     * commits each, by different authors, modify their own directories and are joined by an
+     * octopus merge. A second branch then forks from the merge, and both sides are joined by
+     * a two-parent merge. The {@code main} branch points to the last merge, and {@code topic}
+     * to the head of the second branch.</p>
+     */
+    public static TemporaryRepositoryAccess createBranching() throws IOException {
+        final TemporaryRepositoryAccess ra = create(false);
+        final Map<String, Map<String, String>> state = new TreeMap<>();
+        for (int d = 0; d < WIDE_DIRS; d++) {
+            final String dir = String.format("d%02d", d);
+            final Map<String, String> files = new TreeMap<>();
+            files.put("A.java", javaSource("A", dir, 0));
+            files.put("B.java", javaSource("B", dir, 0));
+            state.put(dir, files);
+        }
+        try (final ObjectInserter inserter = ra.repo.newObjectInserter()) {
+            final Context c = Context.init().with(Context.Key.inserter, inserter);
+            long time = DATE1;
+            final ObjectId root = writeCommit(ra, state, RepositoryAccess.NO_PARENTS, "Root Author", time++, "root", c);
+
+            final List<ObjectId> heads = new ArrayList<>();
+            for (int b = 0; b < BRANCHES; b++) {
+                ObjectId head = root;
+                final Map<String, Map<String, String>> branchState = copy(state);
+                for (int i = 1; i <= 3; i++) {
+                    final String dir = String.format("d%02d", b);
+                    branchState.get(dir).put("A.java", javaSource("A", dir, i));
+                    head = writeCommit(ra, branchState, new ObjectId[]{head}, "Author " + b, time++, "branch " + b + " change " + i, c);
+                }
+                heads.add(head);
+                state.put(String.format("d%02d", b), branchState.get(String.format("d%02d", b)));
+            }
+            final ObjectId octopus = writeCommit(ra, state, heads.toArray(new ObjectId[0]), "Root Author", time++, "octopus merge", c);
+
+            final Map<String, Map<String, String>> topicState = copy(state);
+            topicState.get("d10").put("B.java", javaSource("B", "d10", 1));
+            final ObjectId topic = writeCommit(ra, topicState, new ObjectId[]{octopus}, "Topic Author", time++, "topic change", c);
+            state.get("d11").put("B.java", javaSource("B", "d11", 1));
+            final ObjectId mainline = writeCommit(ra, state, new ObjectId[]{octopus}, "Root Author", time++, "main change", c);
+            state.put("d10", topicState.get("d10"));
+            final ObjectId merge = writeCommit(ra, state, new ObjectId[]{mainline, topic}, "Root Author", time, "merge topic", c);
+            inserter.flush();
+
+            ra.applyRefUpdate(new RefEntry("refs/heads/main", merge));
+            ra.applyRefUpdate(new RefEntry("refs/heads/topic", topic));
+            ra.applyRefUpdate(new RefEntry("HEAD", "refs/heads/main"));
+        }
+        return ra;
+    }
+
+    private static String javaSource(String name, String dir, int version) {
+        return "package " + dir + ";\n\npublic class " + name + " {\n    int version() {\n        return " + version + ";\n    }\n}\n";
+    }
+
+    private static Map<String, Map<String, String>> copy(Map<String, Map<String, String>> state) {
+        final Map<String, Map<String, String>> result = new TreeMap<>();
+        state.forEach((dir, files) -> result.put(dir, new TreeMap<>(files)));
+        return result;
+    }
+
+    private static ObjectId writeCommit(RepositoryAccess ra, Map<String, Map<String, String>> state, ObjectId[] parents,
+                                        String author, long time, String message, Context c) {
+        final List<Entry> dirs = new ArrayList<>();
+        state.forEach((dir, files) -> {
+            final List<Entry> entries = new ArrayList<>();
+            files.forEach((name, content) -> entries.add(Entry.of(BLOB_MODE, name, ra.writeBlob(content.getBytes(StandardCharsets.UTF_8), c))));
+            dirs.add(Entry.of(TREE_MODE, dir, ra.writeTree(entries, c)));
+        });
+        final PersonIdent ident = new PersonIdent(author, "author@example.com", time * 1000, 0);
+        return ra.writeCommit(parents, ra.writeTree(dirs, c), ident, withTime(COMMITTER, time), message, c);
+    }
+
     private static boolean isOnDisk(RepositoryAccess ra) {
         return !(ra.repo instanceof InMemoryRepository);
     }